@@ -0,0 +1,108 @@
+package bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import req.rand.BufferedGenerator;
+import req.rand.ExpGenerator;
+import req.rand.RandomGenerator;
+import req.rand.UniformGenerator;
+import req.rand.ZipfGenerator;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Nanoseconds per draw of one nextInt/nextDouble call per value against one nextInts/nextDoubles call per
+ * block of BLOCK values, for each generator. Before measuring, every draw loop is run with all generator
+ * types so its call sites are megamorphic, as they are in a request thread.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations=3,time=1)
+@Measurement(iterations=5,time=1)
+@Fork(1)
+public class BatchSamplingBench{
+    static final int BLOCK=256;
+    static final int UPPER=1000000;
+    static final String[] GENERATORS={"uniform","zipf","exp","buffered"};
+
+    @State(Scope.Thread)
+    public static class Draws{
+        @Param({"uniform","zipf","exp","buffered"})
+        String generator;
+
+        RandomGenerator gen;
+        final int[] ints=new int[BLOCK];
+        final double[] doubles=new double[BLOCK];
+
+        @Setup
+        public void setup(){
+            RandomGenerator[] all=new RandomGenerator[GENERATORS.length];
+            for(int i=0;i<all.length;++i) all[i]=make(GENERATORS[i]);
+            for(int round=0;round<2000;++round){
+                for(RandomGenerator g : all){
+                    singleInts(g,ints);
+                    singleDoubles(g,doubles);
+                    g.nextInts(ints,UPPER);
+                    g.nextDoubles(doubles);
+                }
+            }
+            gen=make(generator);
+        }
+
+        static RandomGenerator make(String name){
+            switch(name){
+                case "uniform": return new UniformGenerator(UPPER);
+                case "zipf": return new ZipfGenerator(1.0,UPPER,new UniformGenerator());
+                case "exp": return new ExpGenerator(0.5,UPPER,new UniformGenerator());
+                case "buffered": return new BufferedGenerator(new UniformGenerator(),UPPER,BufferedGenerator.DEFAULT_BLOCK);
+                default: throw new IllegalArgumentException(name);
+            }
+        }
+    }
+
+    static void singleInts(RandomGenerator gen,int[] out){
+        for(int i=0;i<out.length;++i) out[i]=gen.nextInt(UPPER);
+    }
+
+    static void singleDoubles(RandomGenerator gen,double[] out){
+        for(int i=0;i<out.length;++i) out[i]=gen.nextDouble();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BLOCK)
+    public int[] nextInt(Draws d){
+        singleInts(d.gen,d.ints);
+        return d.ints;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BLOCK)
+    public int[] nextInts(Draws d){
+        d.gen.nextInts(d.ints,UPPER);
+        return d.ints;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BLOCK)
+    public double[] nextDouble(Draws d){
+        singleDoubles(d.gen,d.doubles);
+        return d.doubles;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BLOCK)
+    public double[] nextDoubles(Draws d){
+        d.gen.nextDoubles(d.doubles);
+        return d.doubles;
+    }
+}
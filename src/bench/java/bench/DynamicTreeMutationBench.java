@@ -0,0 +1,58 @@
+package bench;
+
+import commonmodels.Request;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import req.DynamicTree;
+
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Mutation throughput of DynamicTree as the tree grows: each op is one of createFile, createDir, delete and
+ * rmdir in turn on a uniformly drawn index, so the tree keeps its size. With O(1) list updates the score
+ * stays flat from ten thousand to millions of entries.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations=3,time=2)
+@Measurement(iterations=5,time=2)
+@Fork(value=1,jvmArgsAppend="-Xmx3g")
+public class DynamicTreeMutationBench{
+    @Param({"10000","100000","1000000","4000000"})
+    int entries;
+
+    DynamicTree tree;
+    int op;
+
+    @Setup
+    public void setup() throws IOException{
+        tree=DynamicTree.getDynamicTree(TreeDumps.write(entries).toString());
+    }
+
+    @Benchmark
+    public Request mutate(){
+        ThreadLocalRandom random=ThreadLocalRandom.current();
+        switch(op++&3){
+            case 0:
+                return tree.createFile(random.nextInt(tree.getAllDirSize()));
+            case 1:
+                return tree.createDir(random.nextInt(tree.getAllDirSize()));
+            case 2:
+                return tree.getFileSize()==0 ? null : tree.delete(random.nextInt(tree.getFileSize()));
+            default:
+                return tree.getEmptyDirSize()==0 ? null : tree.rmdir(random.nextInt(tree.getEmptyDirSize()));
+        }
+    }
+}
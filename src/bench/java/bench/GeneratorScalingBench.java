@@ -0,0 +1,53 @@
+package bench;
+
+import commonmodels.Request;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.ThreadParams;
+import req.gen.SmartRequestGenerator;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of one SmartRequestGenerator shared by all benchmark threads, with the request mix of
+ * src/bench/resources/config.properties: half of the requests create or delete entries of the dynamic tree.
+ * Run it once per thread count to see how it scales:
+ * <pre>
+ * for t in 1 2 4 8 16 32 64 128; do mvn -P bench exec:exec -Dbench="GeneratorScalingBench -t $t"; done
+ * </pre>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations=3,time=1)
+@Measurement(iterations=5,time=2)
+@Fork(value=1,jvmArgsAppend="-Xmx2g")
+public class GeneratorScalingBench{
+
+    @State(Scope.Benchmark)
+    public static class Generator{
+        @Param({"100000"})
+        int entries;
+
+        SmartRequestGenerator generator;
+
+        @Setup
+        public void setup() throws IOException{
+            generator=new SmartRequestGenerator(TreeDumps.write(entries).toString(),TreeDumps.write(entries).toString());
+        }
+    }
+
+    @Benchmark
+    public Request next(Generator state,ThreadParams thread){
+        return state.generator.next(thread.getThreadIndex());
+    }
+}
@@ -0,0 +1,71 @@
+package bench;
+
+import bench.legacy.OldMathX;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import util.MathX;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * k distinct values of [0, BOUND) with two of them excluded, as replica and exclusion sets are picked:
+ * <ul>
+ * <li>legacy: the old nonrepeatRandom, HashSet retries over one shared java.util.Random</li>
+ * <li>nonrepeatRandom: today's list API, which samples by Floyd's algorithm and boxes the result</li>
+ * <li>sample: Floyd's algorithm into a caller's int[]</li>
+ * </ul>
+ * Run with -t to see the shared Random of the legacy version contend.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations=3,time=1)
+@Measurement(iterations=5,time=1)
+@Fork(value=1,jvmArgsAppend="-Xmx1g")
+public class MathXBench{
+    static final int BOUND=100000;
+    static final List<Integer> EXCLUDE=Arrays.asList(17,4242);
+
+    @State(Scope.Thread)
+    public static class Sample{
+        @Param({"3","64","1024"})
+        int k;
+
+        int[] out;
+        final int[] exclude=new int[2];
+
+        @Setup
+        public void setup(){
+            out=new int[k];
+        }
+    }
+
+    @Benchmark
+    public Queue<Integer> legacy(Sample s){
+        return OldMathX.nonrepeatRandom(BOUND,s.k,EXCLUDE);
+    }
+
+    @Benchmark
+    public Queue<Integer> nonrepeatRandom(Sample s){
+        return MathX.nonrepeatRandom(BOUND,s.k,EXCLUDE);
+    }
+
+    @Benchmark
+    public int[] sample(Sample s){
+        s.exclude[0]=EXCLUDE.get(0);
+        s.exclude[1]=EXCLUDE.get(1);
+        MathX.sample(BOUND,s.k,s.out,s.exclude,2);
+        return s.out;
+    }
+}
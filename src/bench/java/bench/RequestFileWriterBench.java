@@ -0,0 +1,80 @@
+package bench;
+
+import commonmodels.Request;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import req.LoadProfile;
+import req.RequestService;
+import req.RequestThread;
+import req.gen.ClientRequestGenerator;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Nanoseconds per request of a RequestService run writing its requests to a file the way RegularClient -f
+ * does, flushing once per callback: a batch size of 1 flushes every request, larger ones once per batch.
+ * The rate is set high enough that the threads never wait.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations=3)
+@Measurement(iterations=5)
+@Fork(1)
+public class RequestFileWriterBench{
+    static final int REQUESTS=100000;
+    static final int THREADS=4;
+
+    @State(Scope.Benchmark)
+    public static class Writer{
+        @Param({"1","1024"})
+        int batch;
+
+        ClientRequestGenerator generator;
+        Path out;
+        PrintWriter wr;
+
+        @Setup
+        public void setup() throws IOException{
+            generator=new ClientRequestGenerator(TreeDumps.write(100000).toString());
+            out=Files.createTempFile("requests",".txt");
+            out.toFile().deleteOnExit();
+            wr=new PrintWriter(new BufferedWriter(Files.newBufferedWriter(out,StandardCharsets.UTF_8)));
+        }
+
+        @TearDown
+        public void close(){
+            wr.close();
+        }
+
+        void write(Request[] requests,int n){
+            synchronized(wr){
+                for(int i=0;i<n;++i) wr.println(requests[i].toString());
+                wr.flush();
+            }
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(REQUESTS)
+    public void generate(Writer w){
+        RequestThread.RequestBatchCallBack writer=(batch,n,threadId)->w.write(batch,n);
+        new RequestService(THREADS,LoadProfile.constant(1e9),REQUESTS/THREADS,w.generator,writer,w.batch,0).start();
+    }
+}
@@ -0,0 +1,47 @@
+package bench;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Writes synthetic tree dumps in the format of <code>tree -s -D --timefmt %s</code> for the benchmarks:
+ * top level directories that each hold FILES files and EMPTY_DIRS empty directories.
+ */
+final class TreeDumps{
+    static final int FILES=48;
+    static final int EMPTY_DIRS=8;
+
+    private TreeDumps(){}
+
+    /**
+     * @return a temporary dump of about entries nodes, deleted when the JVM exits
+     */
+    static Path write(int entries) throws IOException{
+        Path file=Files.createTempFile("tree",".txt");
+        file.toFile().deleteOnExit();
+        int perDir=1+FILES+EMPTY_DIRS;
+        int dirs=Math.max(1,(entries+perDir-1)/perDir);
+        try(BufferedWriter out=Files.newBufferedWriter(file,StandardCharsets.UTF_8)){
+            out.write("directory /data/\n");
+            for(int d=0;d<dirs;++d){
+                boolean lastDir=d==dirs-1;
+                line(out,"",lastDir,4096,"d"+d+"/");
+                String indent=lastDir ? "    " : "│   ";
+                for(int f=0;f<FILES;++f) line(out,indent,false,1024L*(1+(d*31+f)%997),"f"+f+".dat");
+                for(int e=0;e<EMPTY_DIRS;++e) line(out,indent,e==EMPTY_DIRS-1,4096,"e"+e+"/");
+            }
+        }
+        return file;
+    }
+
+    private static void line(BufferedWriter out,String indent,boolean last,long size,String name) throws IOException{
+        out.write(indent);
+        out.write(last ? "└── " : "├── ");
+        out.write(String.format("[%14d 1571234567]  ",size));
+        out.write(name);
+        out.write('\n');
+    }
+}
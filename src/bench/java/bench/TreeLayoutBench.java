@@ -0,0 +1,82 @@
+package bench;
+
+import commonmodels.Request;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import req.CompactTree;
+import req.StaticTree;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Heap and GC cost of a static tree in the object layout against the compact one:
+ * <ul>
+ * <li>setup prints the heap the loaded tree retains, measured after full collections</li>
+ * <li>fullGc: the pause of a full collection with the tree live, which has to mark every object of it</li>
+ * <li>fileInfo: request lookups with the tree live, run with <code>-prof gc</code> to see the time spent
+ * in young collections</li>
+ * </ul>
+ */
+@Fork(value=1,jvmArgsAppend={"-Xmx3g","-XX:+UseG1GC"})
+public class TreeLayoutBench{
+
+    @State(Scope.Benchmark)
+    public static class Tree{
+        @Param({"object","compact"})
+        String layout;
+
+        @Param({"1000000"})
+        int entries;
+
+        StaticTree tree;
+        int files;
+
+        @Setup
+        public void setup() throws IOException{
+            String dump=TreeDumps.write(entries).toString();
+            long before=usedHeap();
+            tree=layout.equals("compact") ? CompactTree.getCompactTree(dump) : StaticTree.getStaticTree(dump);
+            long retained=usedHeap()-before;
+            files=tree.getFileSize();
+            System.out.printf("%n%s layout, %d entries: %.1f MB retained%n",layout,entries,retained/1048576.0);
+        }
+
+        static long usedHeap(){
+            MemoryMXBean memory=ManagementFactory.getMemoryMXBean();
+            for(int i=0;i<3;++i) System.gc();
+            return memory.getHeapMemoryUsage().getUsed();
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations=3)
+    @Measurement(iterations=10)
+    public StaticTree fullGc(Tree state){
+        System.gc();
+        return state.tree;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    @Warmup(iterations=3,time=1)
+    @Measurement(iterations=5,time=2)
+    public Request fileInfo(Tree state){
+        return state.tree.fileInfo(ThreadLocalRandom.current().nextInt(state.files));
+    }
+}
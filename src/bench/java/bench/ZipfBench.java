@@ -0,0 +1,77 @@
+package bench;
+
+import bench.legacy.OldZipfGenerator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import req.rand.PerThreadGenerator;
+import req.rand.RandomGenerator;
+import req.rand.UniformGenerator;
+import req.rand.ZipfGenerator;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Zipf draws from 64 threads with the bound changing on every call, as SmartRequestGenerator does when it
+ * alternates between files and dirs of the static and dynamic trees:
+ * <ul>
+ * <li>legacy: the old ZipfGenerator shared by all threads, which stores each new bound and recomputes its
+ * constant, racing the other threads on those fields</li>
+ * <li>shared: today's ZipfGenerator shared by all threads, bound constants cached per thread</li>
+ * <li>perThread: a PerThreadGenerator of unshared ZipfGenerators, as RequestGenerator builds them</li>
+ * </ul>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations=3,time=1)
+@Measurement(iterations=5,time=2)
+@Fork(1)
+@Threads(64)
+public class ZipfBench{
+    static final double ALPHA=1.0;
+    static final int[] BOUNDS={1000000,20000,500000,8000};
+
+    @State(Scope.Benchmark)
+    public static class Generator{
+        @Param({"legacy","shared","perThread"})
+        String impl;
+
+        RandomGenerator generator;
+
+        @Setup
+        public void setup(){
+            UniformGenerator uniform=new UniformGenerator();
+            switch(impl){
+                case "legacy": generator=new OldZipfGenerator(ALPHA,BOUNDS[0],uniform); break;
+                case "shared": generator=new ZipfGenerator(ALPHA,BOUNDS[0],uniform); break;
+                case "perThread":
+                    generator=new PerThreadGenerator(BOUNDS[0],()->new ZipfGenerator(ALPHA,BOUNDS[0],uniform,false));
+                    break;
+                default: throw new IllegalArgumentException(impl);
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Bound{
+        int next;
+
+        int next(){
+            return BOUNDS[next++&BOUNDS.length-1];
+        }
+    }
+
+    @Benchmark
+    public int nextInt(Generator state,Bound bound){
+        return state.generator.nextInt(bound.next());
+    }
+}
@@ -0,0 +1,33 @@
+package bench.legacy;
+
+import java.util.*;
+
+/**
+ * MathX.nonrepeatRandom as it was before Floyd sampling: retries against a HashSet and draws from one
+ * java.util.Random all threads share. Kept only as the baseline of MathXBench.
+ */
+public class OldMathX {
+    private static Random random = new Random(100);
+
+    public static Queue<Integer> nonrepeatRandom(int bound, int size, List<Integer> exclude) {
+        Set<Integer> s = new HashSet<>(exclude);
+        Queue<Integer> result = new LinkedList<>();
+
+        for(int i = 0; i < size; i++){
+            while(true) {
+                int num = random.nextInt(bound);
+                if (!s.contains(num)) {
+                    s.add(num);
+                    result.add(num);
+                    break;
+                }
+            }
+        }
+
+        return result;
+    }
+
+    public static Queue<Integer> nonrepeatRandom(int bound, int size) {
+        return nonrepeatRandom(bound, size, new ArrayList<>());
+    }
+}
@@ -1,9 +1,13 @@
 package example;
 
 import commonmodels.Request;
+import req.CompactTree;
 import req.FSPropagator;
+import req.LoadProfile;
+import req.Permutation;
 import req.RequestService;
 import req.RequestThread;
+import req.TreeSnapshot;
 import req.gen.ClientRequestGenerator;
 import req.gen.RequestGenerator;
 import req.gen.SequentialRequestGenerator;
@@ -17,6 +21,10 @@ import java.io.PrintWriter;
 
 public class RegularClient implements RequestThread.RequestGenerateThreadCallBack {
 
+    //  requests written to the -f file between flushes, and the longest one waits for them
+    private static final int FILE_BATCH_SIZE = 1024;
+    private static final long FILE_BATCH_LINGER = 1000;
+
     public static void main(String[] args) {
         RegularClient regularClient = new RegularClient();
 
@@ -24,7 +32,9 @@ public class RegularClient implements RequestThread.RequestGenerateThreadCallBac
             if (args.length == 0) {
                 System.out.println("Usage: RegularClient -r <filename> [number of requests]\n" +
                         "Usage: RegularClient -f <file in> <file out> [number of requests]\n" +
-                        "Usage: RegularClient -s <filename>\n");
+                        "Usage: RegularClient -s <filename>\n" +
+                        "Usage: RegularClient -b <tree file>\n" +
+                        "Usage: RegularClient -c <permutation file> <binary permutation file>\n");
             } else if (args[0].equals("-r")) {
                 regularClient.launchRequestGenerator(args);
             } else if (args[0].equals("-m")) {
@@ -35,10 +45,16 @@ public class RegularClient implements RequestThread.RequestGenerateThreadCallBac
                 regularClient.launchSequentialRequestGenerator(args);
             } else if (args[0].equals("-p")) {
                 regularClient.launchFilePropagator(args);
+            } else if (args[0].equals("-b")) {
+                regularClient.buildSnapshot(args);
+            } else if (args[0].equals("-c")) {
+                regularClient.convertPermutation(args);
             } else {
                 System.out.println("Usage: RegularClient -r <filename> [number of requests]\n" +
                         "Usage: RegularClient -f <file in> <file out> [number of requests]\n" +
-                        "Usage: RegularClient -s <filename>\n");
+                        "Usage: RegularClient -s <filename>\n" +
+                        "Usage: RegularClient -b <tree file>\n" +
+                        "Usage: RegularClient -c <permutation file> <binary permutation file>\n");
             }
         }
         catch (Exception e) {
@@ -107,10 +123,36 @@ public class RegularClient implements RequestThread.RequestGenerateThreadCallBac
         }
     }
 
+    private void buildSnapshot(String[] args) throws IOException {
+        if (args.length >= 2) {
+            long start = System.nanoTime();
+            CompactTree tree = CompactTree.getCompactTree(args[1], Config.getInstance().getParseThreads());
+            String snapshot = TreeSnapshot.snapshotOf(args[1]);
+            tree.save(snapshot);
+            System.out.println("Saved " + tree.getNodeCount() + " nodes to " + snapshot + " in "
+                    + (System.nanoTime() - start) / 1000000 + " ms");
+        }
+        else {
+            System.out.println ("Usage: RegularClient -b <tree file>");
+        }
+    }
+
+    private void convertPermutation(String[] args) throws IOException {
+        if (args.length >= 3) {
+            Permutation order = Permutation.load(args[1]);
+            order.validate(order.size());
+            order.save(args[2]);
+            System.out.println("Saved " + order.size() + " entries to " + args[2]);
+        }
+        else {
+            System.out.println ("Usage: RegularClient -c <permutation file> <binary permutation file>");
+        }
+    }
+
     private void generateRequest(RequestGenerator generator, int numOfRequests) {
         int numThreads = Config.getInstance().getNumberOfThreads();
         RequestService service = new RequestService(numThreads,
-                Config.getInstance().getReadWriteInterArrivalRate(),
+                LoadProfile.fromConfig(),
                 numOfRequests,
                 generator,
                 this);
@@ -124,15 +166,22 @@ public class RegularClient implements RequestThread.RequestGenerateThreadCallBac
         try {
             FileWriter w = new FileWriter(fileOut);
             BufferedWriter bw = new BufferedWriter(w);
-            PrintWriter wr = new PrintWriter(bw, true);
+            PrintWriter wr = new PrintWriter(bw);
 
             RequestGenerator generator = new ClientRequestGenerator(filename);
             int numThreads = Config.getInstance().getNumberOfThreads();
+            RequestThread.RequestBatchCallBack writer = (batch, n, threadId) -> {
+                for (int i = 0; i < n; ++i)
+                    wr.println(batch[i].toString());
+                wr.flush();
+            };
             RequestService service = new RequestService(1,
-                    1,
+                    LoadProfile.constant(1),
                     numOfRequests * numThreads,
                     generator,
-                    (request, threadId) -> wr.println(request.toString()));
+                    writer,
+                    FILE_BATCH_SIZE,
+                    FILE_BATCH_LINGER);
 
             service.start();
             wr.close();
@@ -0,0 +1,181 @@
+package req;
+
+import commonmodels.Request;
+import util.Log;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Issues requests through an async callback with at most maxInFlight requests in flight overall and
+ * maxPerClient per request thread. At a cap the issuing thread either waits for a request to complete,
+ * which holds back generation, or drops the request and counts it.
+ * <p>
+ * The time from issuing a request to its future completing goes to a histogram, logged on close.
+ */
+final class AsyncDispatcher implements RequestThread.RequestGenerateThreadCallBack {
+
+    private static final Log log = Log.get();
+
+    private final RequestThread.RequestAsyncCallBack callBack;
+
+    private final Semaphore global;
+
+    private final Semaphore[] clients;
+
+    private final boolean drop;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+
+    private final LongAdder dropped = new LongAdder();
+
+    private final LongAdder failed = new LongAdder();
+
+    private final LatencyHistogram latency = new LatencyHistogram();
+
+    /**
+     * @param maxInFlight cap over all clients, 0 for none
+     * @param maxPerClient cap per request thread, 0 for none
+     * @param drop true drops requests over a cap, false waits for room
+     */
+    AsyncDispatcher(RequestThread.RequestAsyncCallBack callBack, int clients, int maxInFlight, int maxPerClient, boolean drop) {
+        this.callBack = callBack;
+        this.global = maxInFlight > 0 ? new Semaphore(maxInFlight) : null;
+        this.clients = maxPerClient > 0 ? new Semaphore[clients] : null;
+        if (this.clients != null) {
+            for (int i = 0; i < clients; ++i)
+                this.clients[i] = new Semaphore(maxPerClient);
+        }
+        this.drop = drop;
+    }
+
+    @Override
+    public void onRequestGenerated(Request request, int threadId) {
+        if (admit(threadId))
+            issue(request, threadId);
+    }
+
+    /**
+     * Takes the permits of a request on the thread that generated it. With a pipeline this happens before
+     * the request enters the ring, so a thread waiting at its cap holds back only its own generation, never
+     * the consumer threads shared by all.
+     * @return false if the request was dropped at a cap
+     */
+    boolean admit(int threadId) {
+        Semaphore client = client(threadId);
+        if (!acquire(client))
+            return false;
+        if (!acquire(global)) {
+            release(client);
+            return false;
+        }
+        int n = inFlight.incrementAndGet();
+        for (int m = maxInFlight.get(); n > m && !maxInFlight.compareAndSet(m, n); m = maxInFlight.get());
+        return true;
+    }
+
+    /**
+     * Issues a request admitted by {@link #admit}, on any thread.
+     */
+    void issue(Request request, int threadId) {
+        Semaphore client = client(threadId);
+        long start = System.nanoTime();
+        CompletableFuture<?> future;
+        try {
+            future = callBack.onRequestIssued(request, threadId);
+        } catch (RuntimeException e) {
+            complete(client, start, e);
+            throw e;
+        }
+        if (future == null)
+            complete(client, start, null);
+        else
+            future.whenComplete((result, error) -> complete(client, start, error));
+    }
+
+    /**
+     * @return a callback for the request threads that admits each request, then hands it to next
+     */
+    RequestThread.RequestGenerateThreadCallBack admitting(RequestThread.RequestGenerateThreadCallBack next) {
+        return (request, threadId) -> {
+            if (!admit(threadId))
+                return;
+            try {
+                next.onRequestGenerated(request, threadId);
+            } catch (RuntimeException e) {
+                complete(client(threadId), System.nanoTime(), e);
+                throw e;
+            }
+        };
+    }
+
+    /**
+     * @return a callback issuing requests that were admitted already
+     */
+    RequestThread.RequestGenerateThreadCallBack issuing() {
+        return this::issue;
+    }
+
+    private Semaphore client(int threadId) {
+        return clients != null && threadId >= 0 && threadId < clients.length ? clients[threadId] : null;
+    }
+
+    private boolean acquire(Semaphore semaphore) {
+        if (semaphore == null)
+            return true;
+        if (drop) {
+            if (semaphore.tryAcquire())
+                return true;
+        } else {
+            try {
+                semaphore.acquire();
+                return true;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        dropped.increment();
+        return false;
+    }
+
+    private static void release(Semaphore semaphore) {
+        if (semaphore != null)
+            semaphore.release();
+    }
+
+    private void complete(Semaphore client, long start, Throwable error) {
+        if (error == null)
+            latency.record(System.nanoTime() - start);
+        else
+            failed.increment();
+        inFlight.decrementAndGet();
+        release(global);
+        release(client);
+    }
+
+    /**
+     * Waits for the requests in flight to complete, at most drainMillis, and logs the statistics.
+     * @param drainMillis 0 to wait as long as it takes
+     */
+    void close(long drainMillis) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(drainMillis);
+        while (inFlight.get() > 0) {
+            if (drainMillis > 0 && System.nanoTime() - deadline >= 0) {
+                log.w(inFlight.get() + " async requests still in flight after waiting " + drainMillis + " ms");
+                break;
+            }
+            LockSupport.parkNanos(1_000_000);
+        }
+        log.i(String.format("Async requests: %d completed, %d failed, %d dropped, at most %d in flight, "
+                        + "latency mean %.3f ms, p50 %.3f ms, p99 %.3f ms, p99.9 %.3f ms, max %.3f ms",
+                latency.count(), failed.sum(), dropped.sum(), maxInFlight.get(), latency.mean() / 1e6,
+                latency.percentile(0.5) / 1e6, latency.percentile(0.99) / 1e6,
+                latency.percentile(0.999) / 1e6, latency.max() / 1e6));
+    }
+}
@@ -0,0 +1,507 @@
+package req;
+
+import commonmodels.Request;
+import req.rand.RandomGenerator;
+import req.rand.UniformGenerator;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Read-only tree stored column-wise: one slot per node in primitive arrays instead of one RandTreeNode each.
+ * Parent links are node indexes, names live UTF-8 encoded in a single shared arena, and the file and
+ * directory lists are index arrays into the node columns.
+ * <p>
+ * The columns are buffers, so they can either wrap arrays filled by the parser or sit in a mapped
+ * {@link TreeSnapshot} file and be used in place.
+ * <p>
+ * Serves the same ls/fileInfo/shuffle API as StaticTree, so generators can use either one.
+ * The List views returned by getFiles() and friends materialize nodes on access and are meant for
+ * inspection, not for the request path.
+ */
+public class CompactTree extends StaticTree{
+    int nodeCount;
+    IntBuffer parents;
+    //  sizes, totalSizes and fileIndex are swapped for heap copies on the first write, volatile so request
+    //  threads see the copy and not the mapped column it replaced
+    volatile LongBuffer sizes;
+    volatile LongBuffer totalSizes;  //  bytes of the files at or under node i
+    IntBuffer fileCounts;   //  files at or under node i
+    IntBuffer nameOffsets;  //  name of node i is names[nameOffsets[i], nameOffsets[i+1])
+    ByteBuffer names;
+    byte[] sepBytes;
+    int rootId=-1;
+
+    volatile IntBuffer fileIndex;
+    int fileCount;
+    IntBuffer dirIndex;     //  non empty dirs
+    int dirCount;
+    IntBuffer emptyIndex;
+    int emptyCount;
+
+    protected CompactTree(){
+        this(new UniformGenerator());
+    }
+
+    protected CompactTree(RandomGenerator generator){
+        super(generator);
+    }
+
+    public static CompactTree getCompactTree(String filename) throws IOException{
+        return getCompactTree(filename,1);
+    }
+
+    /**
+     * @param threads threads scanning the dump, see {@link TreeParser#parse(String,int)}
+     */
+    public static CompactTree getCompactTree(String filename,int threads) throws IOException{
+        CompactTree tree=new CompactTree();
+        Builder builder=tree.new Builder();
+        new TreeParser(builder,false).parse(filename,threads);
+        builder.finish();
+        return tree;
+    }
+
+    /**
+     * Maps a snapshot written by {@link #save(String)}, see {@link TreeSnapshot}.
+     */
+    public static CompactTree load(String snapshot) throws IOException{
+        return TreeSnapshot.load(snapshot);
+    }
+
+    public void save(String snapshot) throws IOException{
+        TreeSnapshot.save(this,snapshot);
+    }
+
+    public int getNodeCount(){
+        return nodeCount;
+    }
+
+    @Override
+    public RandTreeNode getRoot(){
+        return rootId<0 ? null : new CompactNode(rootId);
+    }
+
+    @Override
+    public List<RandTreeNode> getEmptyDirs(){
+        return new NodeList(emptyIndex,emptyCount);
+    }
+
+    @Override
+    public List<RandTreeNode> getNonEmptyDirs(){
+        return new NodeList(dirIndex,dirCount);
+    }
+
+    @Override
+    public List<RandTreeNode> getFiles(){
+        return new NodeList(fileIndex,fileCount);
+    }
+
+    @Override
+    public int getNonEmptyDirSize(){
+        return dirCount;
+    }
+
+    @Override
+    public int getFileSize(){
+        return fileCount;
+    }
+
+    @Override
+    public Request ls(int index){
+        if(index<dirCount)
+            return new Request(Request.Command.LS,path(dirIndex.get(index)));
+        else return null;
+    }
+
+    @Override
+    public Request fileInfo(int index){
+        if(index>=fileCount) return null;
+        int node=fileIndex.get(index);
+        return new Request(path(node),sizes.get(node));
+    }
+
+    @Override
+    public synchronized void updateFileSize(int index,long newSize){
+        int file=fileIndex.get(index);
+        LongBuffer sizes=writableSizes(), totals=writableTotals();
+        long delta=newSize-sizes.get(file);
+        sizes.put(file,newSize);
+        for(int n=file;n>=0;n=parents.get(n)) totals.put(n,totals.get(n)+delta);
+        fileWeights=null;
+    }
+
+    @Override
+    public void shuffleFiles(String file,boolean validate) throws IOException{
+        Permutation order=Permutation.load(file);
+        if(order.size()!=fileCount)
+            throw new IllegalArgumentException("Internal file size: "+fileCount+" shuffle size: "+order.size());
+        if(validate) order.validate(fileCount);
+        order.applyTo(writableFiles(),fileCount);
+        fileWeights=null;
+    }
+
+    @Override
+    public void shuffleFiles(){
+        plainShuffle(writableFiles(),0,fileCount,generator);
+        fileWeights=null;
+    }
+
+    @Override
+    public void shuffleFilesUneven(String shuffle) throws IOException{
+        unevenShuffle(writableFiles(),fileCount,generator,RankFile.parse(shuffle));
+        fileWeights=null;
+    }
+
+    @Override
+    long fileSize(int index){
+        return sizes.get(fileIndex.get(index));
+    }
+
+    //  columns mapped from a snapshot are read only, the first write moves them to the heap
+    synchronized IntBuffer writableFiles(){
+        if(fileIndex.isReadOnly()){
+            int[] copy=new int[fileCount];
+            for(int i=0;i<fileCount;++i) copy[i]=fileIndex.get(i);
+            fileIndex=IntBuffer.wrap(copy);
+        }
+        return fileIndex;
+    }
+
+    synchronized LongBuffer writableSizes(){
+        if(sizes.isReadOnly()){
+            long[] copy=new long[nodeCount];
+            for(int i=0;i<nodeCount;++i) copy[i]=sizes.get(i);
+            sizes=LongBuffer.wrap(copy);
+        }
+        return sizes;
+    }
+
+    synchronized LongBuffer writableTotals(){
+        if(totalSizes.isReadOnly()){
+            long[] copy=new long[nodeCount];
+            for(int i=0;i<nodeCount;++i) copy[i]=totalSizes.get(i);
+            totalSizes=LongBuffer.wrap(copy);
+        }
+        return totalSizes;
+    }
+
+    static String decode(ByteBuffer names,int from,int to){
+        if(names.hasArray())
+            return new String(names.array(),names.arrayOffset()+from,to-from,StandardCharsets.UTF_8);
+        byte[] bytes=new byte[to-from];
+        for(int i=from;i<to;++i) bytes[i-from]=names.get(i);
+        return new String(bytes,StandardCharsets.UTF_8);
+    }
+
+    String name(int node){
+        return decode(names,nameOffsets.get(node),nameOffsets.get(node+1));
+    }
+
+    boolean endsWithSep(int node){
+        int end=nameOffsets.get(node+1);
+        int start=end-sepBytes.length;
+        if(start<nameOffsets.get(node)) return false;
+        for(int i=0;i<sepBytes.length;++i){
+            if(names.get(start+i)!=sepBytes[i]) return false;
+        }
+        return true;
+    }
+
+    void appendName(StringBuilder sb,int node){
+        int start=nameOffsets.get(node), end=nameOffsets.get(node+1);
+        for(int i=start;i<end;++i){
+            byte b=names.get(i);
+            if(b<0){  //  not ascii, let the decoder handle it
+                sb.append(decode(names,i,end));
+                return;
+            }
+            sb.append((char)b);
+        }
+    }
+
+    /**
+     * Same string as RandTreeNode.toString(): the cached path of the parent plus one name.
+     */
+    String path(int node){
+        int parent=parents.get(node);
+        if(parent<0) return name(node);
+        StringBuilder sb=new StringBuilder(dirPath(parent));
+        if(!endsWithSep(parent)) sb.append(sep);
+        appendName(sb,node);
+        return sb.toString();
+    }
+
+    String dirPath(int dir){
+        if(parents.get(dir)<0) return name(dir);
+        PathCache cache=paths;
+        String cached;
+        if(cache!=null && (cached=cache.get(dir))!=null) return cached;
+        int[] chain=new int[32];
+        int depth=0;
+        String prefix=null;
+        for(int n=dir;n>=0;n=parents.get(n)){
+            if(n!=dir && cache!=null && (prefix=cache.peek(n))!=null) break;
+            if(depth==chain.length) chain=Arrays.copyOf(chain,depth*2);
+            chain[depth++]=n;
+        }
+        StringBuilder sb=new StringBuilder(depth*16);
+        int last;
+        if(prefix!=null){
+            sb.append(prefix);
+            last=parents.get(chain[depth-1]);
+        }else{
+            last=chain[--depth];
+            appendName(sb,last);
+        }
+        while(depth>0){
+            if(!endsWithSep(last)) sb.append(sep);
+            last=chain[--depth];
+            appendName(sb,last);
+        }
+        String path=sb.toString();
+        if(cache!=null) cache.put(dir,path);
+        return path;
+    }
+
+    @Override
+    public RandTreeNode lookup(String path){
+        PathIndex index=pathIndex;
+        if(index==null) index=indexPaths();
+        int node=index.get(PathIndex.hash(PathIndex.SEED,path),n->matches(n,path));
+        return node<0 ? null : new CompactNode(node);
+    }
+
+    //  every node is indexed under its id, hashed from its parent's hash like path() joins them
+    @Override
+    synchronized PathIndex indexPaths(){
+        if(pathIndex!=null) return pathIndex;
+        PathIndex index=new PathIndex(nodeCount);
+        long[] hashes=new long[nodeCount];
+        BitSet done=new BitSet(nodeCount);
+        int[] chain=new int[32];
+        for(int i=done.nextClearBit(0);i<nodeCount;i=done.nextClearBit(i+1)){
+            int depth=0;
+            for(int n=i;n>=0 && !done.get(n);n=parents.get(n)){
+                if(depth==chain.length) chain=Arrays.copyOf(chain,depth*2);
+                chain[depth++]=n;
+            }
+            while(depth>0){
+                int n=chain[--depth];
+                int parent=parents.get(n);
+                long h=PathIndex.SEED;
+                if(parent>=0){
+                    h=hashes[parent];
+                    if(!endsWithSep(parent)) h=PathIndex.hash(h,sep);
+                }
+                hashes[n]=h=hashName(h,n);
+                done.set(n);
+                index.put(h,n);
+            }
+        }
+        pathIndex=index;
+        return index;
+    }
+
+    private long hashName(long h,int node){
+        long start=h;
+        for(int i=nameOffsets.get(node),end=nameOffsets.get(node+1);i<end;++i){
+            byte b=names.get(i);
+            if(b<0) return PathIndex.hash(start,name(node));
+            h=PathIndex.hash(h,(char)b);
+        }
+        return h;
+    }
+
+    private boolean matches(int node,String path){
+        int end=path.length();
+        for(int n=node;;){
+            end=matchName(n,path,end);
+            if(end<0) return false;
+            int parent=parents.get(n);
+            if(parent<0) return end==0;
+            if(!endsWithSep(parent)){
+                end-=sep.length();
+                if(end<0 || !path.startsWith(sep,end)) return false;
+            }
+            n=parent;
+        }
+    }
+
+    //  where the name of node starts in path if it ends right before end, -1 if it is not there
+    private int matchName(int node,String path,int end){
+        int from=nameOffsets.get(node), to=nameOffsets.get(node+1);
+        for(int i=to-1,j=end-1;i>=from;--i,--j){
+            byte b=names.get(i);
+            if(b<0){
+                String name=name(node);
+                int start=end-name.length();
+                return start>=0 && path.startsWith(name,start) ? start : -1;
+            }
+            if(j<0 || path.charAt(j)!=b) return -1;
+        }
+        return end-(to-from);
+    }
+
+    protected class CompactNode extends RandTreeNode{
+        final int id;
+
+        protected CompactNode(int id){
+            super(null,name(id),sizes.get(id));
+            this.id=id;
+            this.totalSize=totalSizes.get(id);
+            this.fileCount=fileCounts.get(id);
+        }
+
+        @Override
+        public RandTreeNode getParent(){
+            int parent=parents.get(id);
+            return parent<0 ? null : new CompactNode(parent);
+        }
+
+        @Override
+        public String toString(){
+            return path(id);
+        }
+    }
+
+    class NodeList extends AbstractList<RandTreeNode> implements RandomAccess{
+        final IntBuffer index;
+        final int size;
+
+        NodeList(IntBuffer index,int size){
+            this.index=index;
+            this.size=size;
+        }
+
+        @Override
+        public RandTreeNode get(int i){
+            if(i>=size) throw new IndexOutOfBoundsException("Index: "+i+", Size: "+size);
+            return new CompactNode(index.get(i));
+        }
+
+        @Override
+        public int size(){
+            return size;
+        }
+    }
+
+    /**
+     * Fills the columns while TreeParser walks the dump; arrays grow by doubling and are trimmed and
+     * wrapped in finish().
+     */
+    protected class Builder implements TreeSink{
+        int[] parents=new int[1024];
+        long[] sizes=new long[1024];
+        int[] nameOffsets=new int[1025];
+        byte[] names=new byte[16*1024];
+        int[] fileIndex=new int[1024];
+        int[] dirIndex=new int[256];
+        int[] emptyIndex=new int[16];
+
+        @Override
+        public int node(String name,long size){
+            byte[] bytes=name.getBytes(StandardCharsets.UTF_8);
+            return node(bytes,0,bytes.length,size);
+        }
+
+        @Override
+        public int node(byte[] bytes,int from,int length,long size){
+            if(nodeCount==parents.length){
+                int capacity=nodeCount*2;
+                parents=Arrays.copyOf(parents,capacity);
+                sizes=Arrays.copyOf(sizes,capacity);
+                nameOffsets=Arrays.copyOf(nameOffsets,capacity+1);
+            }
+            int offset=nameOffsets[nodeCount];
+            if(offset+length>names.length){
+                long capacity=Math.max((long)names.length*2,(long)offset+length);
+                if(capacity>Integer.MAX_VALUE-8){
+                    if((long)offset+length>Integer.MAX_VALUE-8)
+                        throw new IllegalStateException("Name arena exceeds 2GB at node "+nodeCount);
+                    capacity=Integer.MAX_VALUE-8;
+                }
+                names=Arrays.copyOf(names,(int)capacity);
+            }
+            System.arraycopy(bytes,from,names,offset,length);
+            parents[nodeCount]=-1;
+            sizes[nodeCount]=size;
+            nameOffsets[nodeCount+1]=offset+length;
+            return nodeCount++;
+        }
+
+        @Override
+        public void link(int child,int parent){
+            parents[child]=parent;
+        }
+
+        @Override
+        public String name(int node){
+            return new String(names,nameOffsets[node],nameOffsets[node+1]-nameOffsets[node],StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public void sep(String s){
+            sep=s;
+            sepBytes=s.getBytes(StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public void root(int node){
+            rootId=node;
+        }
+
+        @Override
+        public void file(int node){
+            if(fileCount==fileIndex.length) fileIndex=Arrays.copyOf(fileIndex,fileCount*2);
+            fileIndex[fileCount++]=node;
+        }
+
+        @Override
+        public void nonEmptyDir(int node){
+            if(dirCount==dirIndex.length) dirIndex=Arrays.copyOf(dirIndex,dirCount*2);
+            dirIndex[dirCount++]=node;
+        }
+
+        @Override
+        public void emptyDir(int node){
+            if(emptyCount==emptyIndex.length) emptyIndex=Arrays.copyOf(emptyIndex,emptyCount*2);
+            emptyIndex[emptyCount++]=node;
+        }
+
+        void finish(){
+            CompactTree.this.parents=IntBuffer.wrap(Arrays.copyOf(parents,nodeCount));
+            CompactTree.this.sizes=LongBuffer.wrap(Arrays.copyOf(sizes,nodeCount));
+            CompactTree.this.nameOffsets=IntBuffer.wrap(Arrays.copyOf(nameOffsets,nodeCount+1));
+            CompactTree.this.names=ByteBuffer.wrap(Arrays.copyOf(names,nameOffsets[nodeCount]));
+            CompactTree.this.fileIndex=IntBuffer.wrap(Arrays.copyOf(fileIndex,fileCount));
+            CompactTree.this.dirIndex=IntBuffer.wrap(Arrays.copyOf(dirIndex,dirCount));
+            CompactTree.this.emptyIndex=IntBuffer.wrap(Arrays.copyOf(emptyIndex,emptyCount));
+            //  ids follow the dump, so one backward pass adds every node into its parent
+            long[] totals=new long[nodeCount];
+            int[] counts=new int[nodeCount];
+            for(int i=0;i<fileCount;++i){
+                int f=fileIndex[i];
+                totals[f]=sizes[f];
+                counts[f]=1;
+            }
+            for(int i=nodeCount-1;i>0;--i){
+                int p=parents[i];
+                if(p>=0){
+                    totals[p]+=totals[i];
+                    counts[p]+=counts[i];
+                }
+            }
+            CompactTree.this.totalSizes=LongBuffer.wrap(totals);
+            CompactTree.this.fileCounts=IntBuffer.wrap(counts);
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package req;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+
+/**
+ * One line-aligned slice of a tree dump, scanned byte by byte into flat records.
+ * <p>
+ * Does what TreeParser.parse does to a single line (indent prefixes, trim, root marker, the
+ * <code>[size mtime]</code> pattern) without decoding or regex, so slices can be scanned in parallel
+ * and handed to TreeParser in file order. Names stay in the mapped buffer until TreeParser copies them out.
+ */
+class DumpChunk implements Callable<DumpChunk>{
+    static final byte NODE=0, ROOT=1, BAD_LINE=2, BAD_NUMBER=3;
+
+    static final byte[] LAST={(byte)0xE2,(byte)0x94,(byte)0x94,(byte)0xE2,(byte)0x94,(byte)0x80,(byte)0xE2,(byte)0x94,(byte)0x80,' '};
+    static final byte[] MIDDLE={(byte)0xE2,(byte)0x94,(byte)0x9C,(byte)0xE2,(byte)0x94,(byte)0x80,(byte)0xE2,(byte)0x94,(byte)0x80,' '};
+    static final byte[] PIPE={(byte)0xE2,(byte)0x94,(byte)0x82,' ',' ',' '};
+    static final byte[] SPACE={' ',' ',' ',' '};
+    static final byte[] DIRECTORY="directory".getBytes(StandardCharsets.US_ASCII);
+
+    final ByteBuffer buf;
+    int lines=0;    //  physical lines, blank ones included
+
+    //  one entry per non blank, non skipped line
+    int count=0;
+    int[] line=new int[1024];
+    byte[] kind=new byte[1024];
+    int[] indent=new int[1024];
+    long[] size=new long[1024];
+    int[] start=new int[1024];
+    int[] length=new int[1024];
+
+    DumpChunk(ByteBuffer buf){
+        this.buf=buf;
+    }
+
+    @Override
+    public DumpChunk call(){
+        int limit=buf.limit();
+        int p=0;
+        //  same line breaks as BufferedReader.readLine: \n, \r or \r\n
+        while(p<limit){
+            int ls=p;
+            byte b=0;
+            while(p<limit && (b=buf.get(p))!='\n' && b!='\r') ++p;
+            int le=p;
+            if(p<limit){
+                ++p;
+                if(b=='\r' && p<limit && buf.get(p)=='\n') ++p;
+            }
+            scan(ls,le,lines++);
+        }
+        return this;
+    }
+
+    private int u(int i){
+        return buf.get(i)&0xff;
+    }
+
+    private boolean startsWith(int p,int end,byte[] prefix){
+        if(end-p<prefix.length) return false;
+        for(int i=0;i<prefix.length;++i){
+            if(buf.get(p+i)!=prefix[i]) return false;
+        }
+        return true;
+    }
+
+    //  \s in java.util.regex
+    private static boolean isSpace(int b){
+        return b==' ' || (b>='\t' && b<='\r');
+    }
+
+    private static boolean isDigit(int b){
+        return b>='0' && b<='9';
+    }
+
+    private void scan(int ls,int le,int lineNo){
+        //  skip blank line
+        int s=ls;
+        while(s<le && u(s)<=' ') ++s;
+        if(s==le) return;
+
+        int p=ls, depth=0;
+        for(;;){
+            if(startsWith(p,le,LAST)) p+=LAST.length;
+            else if(startsWith(p,le,MIDDLE)) p+=MIDDLE.length;
+            else if(startsWith(p,le,PIPE)) p+=PIPE.length;
+            else if(startsWith(p,le,SPACE)) p+=SPACE.length;
+            else break;
+            ++depth;
+        }
+        int e=le;
+        while(p<e && u(p)<=' ') ++p;
+        while(e>p && u(e-1)<=' ') --e;
+
+        if(depth==0){
+            if(startsWith(p,e,DIRECTORY)){  //  root
+                p+=DIRECTORY.length;
+                while(p<e && isSpace(u(p))) ++p;
+                add(lineNo,ROOT,0,0,p,e);
+            }else add(lineNo,NODE,0,0,p,e);
+            return;
+        }
+        //  non root, the whole name has to match (\[\s*(\d+)\s+(\d+)\]\s+)?(.+)
+        if(p==e || hasLineTerminator(p,e)){
+            add(lineNo,BAD_LINE,depth,0,ls,le);
+            return;
+        }
+        int q=p;
+        if(u(q)!='[') return;
+        ++q;
+        while(q<e && isSpace(u(q))) ++q;
+        int digits=q;
+        long value=0;
+        boolean overflow=false;
+        while(q<e && isDigit(u(q))){
+            long next=value*10+(u(q)-'0');
+            if(value>Long.MAX_VALUE/10 || next<0) overflow=true;
+            value=next;
+            ++q;
+        }
+        int digitsEnd=q;
+        if(q==digits || q==e || !isSpace(u(q))) return;
+        while(q<e && isSpace(u(q))) ++q;
+        int time=q;
+        while(q<e && isDigit(u(q))) ++q;
+        if(q==time || q==e || u(q)!=']') return;
+        ++q;
+        if(q==e || !isSpace(u(q))) return;
+        while(q<e && isSpace(u(q))) ++q;
+        if(q==e) return;
+        if(overflow) add(lineNo,BAD_NUMBER,depth,0,digits,digitsEnd);
+        else add(lineNo,NODE,depth,value,q,e);
+    }
+
+    //  U+0085, U+2028 and U+2029 don't match '.'
+    private boolean hasLineTerminator(int p,int e){
+        for(int i=p;i<e;++i){
+            int b=u(i);
+            if(b==0xC2 && i+1<e && u(i+1)==0x85) return true;
+            if(b==0xE2 && i+2<e && u(i+1)==0x80 && (u(i+2)==0xA8 || u(i+2)==0xA9)) return true;
+        }
+        return false;
+    }
+
+    private void add(int lineNo,byte k,int depth,long value,int from,int to){
+        if(count==line.length){
+            int capacity=count*2;
+            line=Arrays.copyOf(line,capacity);
+            kind=Arrays.copyOf(kind,capacity);
+            indent=Arrays.copyOf(indent,capacity);
+            size=Arrays.copyOf(size,capacity);
+            start=Arrays.copyOf(start,capacity);
+            length=Arrays.copyOf(length,capacity);
+        }
+        line[count]=lineNo;
+        kind[count]=k;
+        indent[count]=depth;
+        size[count]=value;
+        start[count]=from;
+        length[count]=to-from;
+        ++count;
+    }
+
+    String text(int from,int len){
+        byte[] bytes=new byte[len];
+        ByteBuffer dup=buf.duplicate();
+        ((Buffer)dup).position(from);
+        dup.get(bytes);
+        return new String(bytes,StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return the text of a line of this chunk, for error messages
+     */
+    String lineText(int lineNo){
+        int limit=buf.limit();
+        int p=0;
+        for(int n=0;p<limit;++n){
+            int ls=p;
+            byte b=0;
+            while(p<limit && (b=buf.get(p))!='\n' && b!='\r') ++p;
+            if(n==lineNo) return text(ls,p-ls);
+            if(p<limit){
+                ++p;
+                if(b=='\r' && p<limit && buf.get(p)=='\n') ++p;
+            }
+        }
+        return "";
+    }
+}
@@ -1,27 +1,86 @@
 package req;
 
 import commonmodels.Request;
+import req.rand.ConcurrentFenwickTree;
 import req.rand.RandomGenerator;
 
+import java.io.BufferedWriter;
+import java.io.File;
 import java.io.IOException;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
 
+/**
+ * StaticTree that also creates and removes entries.
+ * <p>
+ * Mutations may run from any number of threads. A mutation locks the stripe of the directory whose
+ * children it changes, plus the stripe of the removed directory for rmdir, so mutations under different
+ * directories run in parallel; the entry lists only lock for the O(1) insert or remove itself. Reads
+ * (ls, fileInfo) take no lock. Indexes are picked without a lock too, so a mutation that finds its
+ * target already gone returns null and the caller draws again.
+ */
 public class DynamicTree extends StaticTree{
+    static final int STRIPES=1024;
+    //  slot of a node in whichever IndexedList holds it
+    static final IndexedList.Slots<RandTreeNode> SLOTS=new IndexedList.Slots<RandTreeNode>(){
+        @Override
+        public int get(RandTreeNode node){
+            return ((DynamicRandTreeNode)node).slot;
+        }
+
+        @Override
+        public void set(RandTreeNode node,int slot){
+            ((DynamicRandTreeNode)node).slot=slot;
+        }
+    };
+
+    final ReentrantLock[] stripes=new ReentrantLock[STRIPES];
+    volatile TreeJournal journal=null;
+    String checkpointFile;
+    final AtomicBoolean checkpointing=new AtomicBoolean();
+    volatile SizeWeights sizeWeights=null;  //  built by the first pick by size, then kept up to date
+
+    {
+        for(int i=0;i<STRIPES;++i) stripes[i]=new ReentrantLock();
+    }
+
     protected DynamicTree(){
         super();
+        indexLists();
     }
 
     protected DynamicTree(RandomGenerator uniform){
         super(uniform);
+        indexLists();
     }
 
     public DynamicTree(RandomGenerator uniform,String sep){
         super(uniform,sep);
+        indexLists();
+    }
+
+    //  creates and deletes pick by index, remove by node and insert at the front
+    private void indexLists(){
+        emptyDirs=new IndexedList<>(SLOTS);
+        nonEmptyDirs=new IndexedList<>(SLOTS);
+        files=new IndexedList<>(SLOTS);
     }
 
     public static DynamicTree getDynamicTree(String filename) throws IOException {
+        return getDynamicTree(filename,1);
+    }
+
+    public static DynamicTree getDynamicTree(String filename,int threads) throws IOException {
         DynamicTree tree=new DynamicTree();
-        new TreeParser<DynamicTree,DynamicRandTreeNode>().parse(tree,filename,true);
+        new TreeParser(tree.new NodeSink(),true).parse(filename,threads);
         return tree;
     }
 
@@ -33,6 +92,9 @@ public class DynamicTree extends StaticTree{
     protected class DynamicRandTreeNode extends RandTreeNode{
         Map<String,DynamicRandTreeNode> children=null;
         boolean isLast = false;
+        int slot=-1;
+        int weightSlot=-1;      //  place in sizeWeights, written under its monitor
+        boolean removed=false;  //  guarded by the stripe of its parent, and its own for a dir
 
         @Override
         public String toTreeString(boolean isLast) {
@@ -72,9 +134,14 @@ public class DynamicTree extends StaticTree{
             return result.toString();
         }
 
+        //  caller holds the stripe of parent
         DynamicRandTreeNode removeUp(){
+            removed=true;
+            SizeWeights weights=sizeWeights;
+            if(weights!=null) weights.remove(this);
             if(parent!=null){
                 DynamicRandTreeNode p=(DynamicRandTreeNode)parent;
+                p.addTotals(-totalSize,-fileCount);
                 p.children.remove(this.name);
                 if(p.children.size()==0){
                     nonEmptyDirs.remove(parent);
@@ -93,43 +160,241 @@ public class DynamicTree extends StaticTree{
             parent.children.put(name,this);
         }
 
-        DynamicRandTreeNode createFile(int index){
+        //  caller holds the stripe of this
+        DynamicRandTreeNode createFile(){
+            String newName=randName();
+            while(children!=null && children.containsKey(newName)) newName=randName();
+            return attach(newName,false);
+        }
+
+        //  caller holds the stripe of this
+        DynamicRandTreeNode createDir(){
+            String newName=randName()+sep;
+            while(children!=null && children.containsKey(newName)) newName=randName()+sep;
+            return attach(newName,true);
+        }
+
+        DynamicRandTreeNode attach(String newName,boolean isDir){
             if(children==null){
                 children=new HashMap<>();
             }
-            String newName=randName();
-            while(children.containsKey(newName)) newName=randName();
             DynamicRandTreeNode child=new DynamicRandTreeNode();
             child.name=newName;
             child.parent=this;
             children.put(newName,child);
-            files.add(0,child);
             if(children.size()==1){
-                emptyDirs.remove(index);
+                emptyDirs.remove(this);
                 nonEmptyDirs.add(this);
             }
+            if(isDir) emptyDirs.add(0,child);
+            else{
+                files.add(0,child);
+                child.addTotals(0,1);
+                SizeWeights weights=sizeWeights;
+                if(weights!=null) weights.add(child);
+            }
             return child;
         }
+    }
 
-        DynamicRandTreeNode createDir(int index){
-            if(children==null){
-                children=new HashMap<>();
+    /**
+     * Writes the tree under the root in the format TreeParser reads, one line per entry, children in
+     * map order. Walks with an explicit stack and extends or trims a single prefix per level, so memory
+     * stays proportional to the depth. Don't mutate the tree meanwhile.
+     */
+    public void writeTree(Writer out) throws IOException{
+        DynamicRandTreeNode top=(DynamicRandTreeNode)root;
+        if(top==null){
+            out.write("null");
+            return;
+        }
+        String time=Long.toString(System.currentTimeMillis()/1000L);
+        out.write("directory ");
+        out.write(top.name);
+        Deque<Iterator<DynamicRandTreeNode>> stack=new ArrayDeque<>();
+        StringBuilder prefix=new StringBuilder();
+        if(top.children!=null) stack.push(top.children.values().iterator());
+        while(!stack.isEmpty()){
+            Iterator<DynamicRandTreeNode> it=stack.peek();
+            if(!it.hasNext()){
+                stack.pop();
+                if(!stack.isEmpty()) prefix.setLength(prefix.length()-4);
+                continue;
             }
-            DynamicRandTreeNode child=new DynamicRandTreeNode();
-            String newName=randName()+sep;
-            while(children.containsKey(newName)) newName=randName()+sep;
-            child.name=newName;
-            child.parent=this;
-            children.put(newName,child);
-            emptyDirs.add(0,child);
-            if(children.size()==1){
-                emptyDirs.remove(index);
-                nonEmptyDirs.add(this);
+            DynamicRandTreeNode node=it.next();
+            boolean last=!it.hasNext();
+            out.write('\n');
+            out.append(prefix).append(last ? "└── " : "├── ").append('[');
+            pad(out,Long.toString(node.size),14);
+            out.write(' ');
+            pad(out,time,10);
+            out.write("]  ");
+            out.write(node.name);
+            if(node.children!=null && !node.children.isEmpty()){
+                prefix.append(last ? "    " : "│   ");
+                stack.push(node.children.values().iterator());
+            }
+        }
+    }
+
+    //  String.format("%<width>s",s)
+    private static void pad(Writer out,String s,int width) throws IOException{
+        for(int i=s.length();i<width;++i) out.write(' ');
+        out.write(s);
+    }
+
+    /**
+     * {@link #writeTree(Writer)} into a UTF-8 file.
+     */
+    public void saveTree(String filename) throws IOException{
+        try(FileChannel channel=FileChannel.open(Paths.get(filename),StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE,StandardOpenOption.TRUNCATE_EXISTING);
+            Writer out=new BufferedWriter(Channels.newWriter(channel,StandardCharsets.UTF_8.newEncoder(),-1),1<<16)){
+            writeTree(out);
+        }
+    }
+
+    /**
+     * Loads the tree from the checkpoint of journal if there is one, or from the dump otherwise, applies
+     * the journal on top and keeps journaling every mutation from then on. The journal has to start
+     * out from the same dump, delete it and its checkpoint when switching dumps.
+     *
+     * @param syncMillis how often journaled mutations are written out and synced
+     * @param checkpointOps mutations between checkpoints, 0 to never checkpoint
+     */
+    public static DynamicTree recover(String dump,String journal,int threads,long syncMillis,long checkpointOps)
+            throws IOException{
+        DynamicTree tree;
+        long generation=0;
+        String checkpoint=TreeJournal.checkpointOf(journal);
+        if(new File(checkpoint).isFile()){
+            tree=new DynamicTree();
+            generation=TreeJournal.readCheckpoint(tree,checkpoint);
+        }else tree=getDynamicTree(dump,threads);
+        long replayed=TreeJournal.replay(tree,journal,generation);
+        if(replayed>0) log.i("Replayed "+replayed+" journal records onto "+(generation>0 ? checkpoint : dump));
+        tree.checkpointFile=checkpoint;
+        tree.journal=new TreeJournal(journal,generation,syncMillis,checkpointOps);
+        return tree;
+    }
+
+    //  caller holds the stripe that guards node, append only copies the record and leaves the I/O to the flusher
+    private void record(byte op,DynamicRandTreeNode node){
+        TreeJournal j=journal;
+        if(j!=null) j.append(op,node.parent==null ? "" : dirPath(node.parent),node.name);
+    }
+
+    private void checkpointIfDue(){
+        TreeJournal j=journal;
+        if(j!=null && j.due()){
+            try{
+                checkpoint();
+            }catch(IOException e){
+                log.w(e);
             }
-            return child;
         }
     }
 
+    /**
+     * Writes a checkpoint of the whole tree and empties the journal. Mutations wait meanwhile;
+     * if another checkpoint is under way this returns at once.
+     */
+    public void checkpoint() throws IOException{
+        TreeJournal j=journal;
+        if(j==null || !checkpointing.compareAndSet(false,true)) return;
+        try{
+            for(ReentrantLock lock : stripes) lock.lock();
+            try{
+                j.flush();
+                long generation=j.generation+1;
+                TreeJournal.writeCheckpoint(this,checkpointFile,generation);
+                j.reset(generation);
+            }finally{
+                for(ReentrantLock lock : stripes) lock.unlock();
+            }
+        }finally{
+            checkpointing.set(false);
+        }
+    }
+
+    /**
+     * Writes out pending journal records and stops journaling.
+     */
+    public void closeJournal() throws IOException{
+        TreeJournal j=journal;
+        journal=null;
+        if(j!=null) j.close();
+    }
+
+    //  replays one journal record, false if it doesn't fit the tree
+    boolean apply(byte op,String parentPath,String name){
+        DynamicRandTreeNode parent=parentPath.isEmpty() ? null : resolve(parentPath);
+        if(parent==null && !parentPath.isEmpty()) return false;
+        if(op==TreeJournal.CREATE_FILE || op==TreeJournal.CREATE_DIR){
+            if(parent==null || (parent.children!=null && parent.children.containsKey(name))) return false;
+            parent.attach(name,op==TreeJournal.CREATE_DIR);
+            return true;
+        }
+        DynamicRandTreeNode node=parent==null ? topLevel(name) : parent.children==null ? null : parent.children.get(name);
+        if(node==null || !(op==TreeJournal.DELETE ? files : emptyDirs).remove(node)) return false;
+        node.removeUp();
+        if(op==TreeJournal.RMDIR && paths!=null) paths.remove(node);
+        return true;
+    }
+
+    //  a node without parent, other than the root
+    private DynamicRandTreeNode topLevel(String name){
+        for(List<RandTreeNode> list : Arrays.asList(files,emptyDirs)){
+            for(RandTreeNode n : list){
+                if(n.parent==null && n.name.equals(name)) return (DynamicRandTreeNode)n;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Follows the children maps from the root, one map per path component, so entries created or removed
+     * by the mutations are found or missed right away. Entries outside the root are not looked up.
+     */
+    @Override
+    public RandTreeNode lookup(String path){
+        return resolve(path);
+    }
+
+    /**
+     * @return the entry whose path is path, directories with or without the trailing separator
+     */
+    DynamicRandTreeNode resolve(String path){
+        DynamicRandTreeNode node=(DynamicRandTreeNode)root;
+        if(node==null || !path.startsWith(node.name)) return null;
+        int p=node.name.length();
+        while(p<path.length()){
+            if(!node.name.endsWith(sep)){
+                if(!path.startsWith(sep,p)) return null;
+                p+=sep.length();
+            }
+            int q=path.indexOf(sep,p);
+            DynamicRandTreeNode child=null;
+            ReentrantLock lock=stripe(node);    //  the stripe mutations of node's children hold
+            lock.lock();
+            try{
+                if(node.children==null) return null;
+                if(q>=0) child=node.children.get(path.substring(p,q+sep.length()));
+                if(child!=null) p=q+sep.length();
+                else{
+                    int end=q<0 ? path.length() : q;
+                    child=node.children.get(path.substring(p,end));
+                    p=end;
+                }
+            }finally{
+                lock.unlock();
+            }
+            if(child==null) return null;
+            node=child;
+        }
+        return node;
+    }
+
     public int getEmptyDirSize(){
         return emptyDirs.size();
     }
@@ -139,34 +404,221 @@ public class DynamicTree extends StaticTree{
         return emptyDirs.size()+nonEmptyDirs.size();
     }
 
+    int stripeOf(RandTreeNode dir){
+        return PathCache.spread(System.identityHashCode(dir))&(STRIPES-1);
+    }
+
+    ReentrantLock stripe(RandTreeNode dir){
+        return stripes[stripeOf(dir)];
+    }
+
+    private static <T> T get(List<T> list,int index){
+        try{
+            return list.get(index);
+        }catch(IndexOutOfBoundsException e){   //  shrunk since the caller read its size
+            return null;
+        }
+    }
+
+    @Override
+    public Request ls(int index){
+        RandTreeNode dir=get(nonEmptyDirs,index);
+        return dir==null ? null : new Request(Request.Command.LS,dir.toString());
+    }
+
+    @Override
+    public Request fileInfo(int index){
+        RandTreeNode result=get(files,index);
+        return result==null ? null : new Request(result.toString(),result.size);
+    }
+
+    @Override
+    public void updateFileSize(int index,long newSize){
+        DynamicRandTreeNode file=(DynamicRandTreeNode)get(files,index);
+        if(file==null) return;
+        long old=file.size;
+        file.size=newSize;
+        file.addTotals(newSize-old,0);
+        SizeWeights weights=sizeWeights;
+        if(weights!=null) weights.update(file);
+    }
+
+    /**
+     * Picks a file with probability proportional to its size, in O(log n) and without locking. The weights
+     * follow creates, deletes and size updates; if every file is empty the pick is uniform.
+     */
+    @Override
+    public Request fileInfoBySize(RandomGenerator uniform){
+        RandTreeNode file=sizeWeights().next(uniform);
+        return file==null ? null : new Request(file.toString(),file.size);
+    }
+
+    @Override
+    public long getWeightedFileSize(){
+        return sizeWeights().total();
+    }
+
+    SizeWeights sizeWeights(){
+        SizeWeights weights=sizeWeights;
+        return weights!=null ? weights : weighSizes();
+    }
+
+    //  with every stripe held no file comes or goes while the weights are filled
+    private synchronized SizeWeights weighSizes(){
+        if(sizeWeights==null){
+            for(ReentrantLock lock : stripes) lock.lock();
+            try{
+                sizeWeights=new SizeWeights(files);
+            }finally{
+                for(ReentrantLock lock : stripes) lock.unlock();
+            }
+        }
+        return sizeWeights;
+    }
+
+    /**
+     * The files packed in an array, a removed file's place taken by the last one, with their sizes in a
+     * Fenwick tree over the array. Writers take the monitor for the O(log n) update, draws read the
+     * current table without it.
+     */
+    static final class SizeWeights{
+        static final class Table{
+            final AtomicReferenceArray<DynamicRandTreeNode> files;
+            final ConcurrentFenwickTree sizes;
+
+            Table(AtomicReferenceArray<DynamicRandTreeNode> files,ConcurrentFenwickTree sizes){
+                this.files=files;
+                this.sizes=sizes;
+            }
+        }
+
+        volatile Table table;
+        volatile int count;
+
+        SizeWeights(List<RandTreeNode> all){
+            int n=all.size();
+            AtomicReferenceArray<DynamicRandTreeNode> files=new AtomicReferenceArray<>(Math.max(16,n*2));
+            long[] weights=new long[n];
+            for(int i=0;i<n;++i){
+                DynamicRandTreeNode file=(DynamicRandTreeNode)all.get(i);
+                file.weightSlot=i;
+                files.set(i,file);
+                weights[i]=file.size;
+            }
+            table=new Table(files,new ConcurrentFenwickTree(weights,files.length()));
+            count=n;
+        }
+
+        synchronized void add(DynamicRandTreeNode file){
+            Table t=table;
+            int n=count;
+            if(n==t.files.length()){
+                AtomicReferenceArray<DynamicRandTreeNode> files=new AtomicReferenceArray<>(n*2);
+                for(int i=0;i<n;++i) files.set(i,t.files.get(i));
+                table=t=new Table(files,t.sizes.resized(n*2));
+            }
+            file.weightSlot=n;
+            t.files.set(n,file);
+            t.sizes.set(n,file.size);
+            count=n+1;
+        }
+
+        synchronized void remove(DynamicRandTreeNode file){
+            int slot=file.weightSlot;
+            if(slot<0) return;
+            Table t=table;
+            int last=count-1;
+            DynamicRandTreeNode moved=t.files.get(last);
+            t.files.set(slot,moved);
+            moved.weightSlot=slot;
+            t.sizes.set(slot,t.sizes.get(last));
+            count=last;
+            t.files.set(last,null);
+            t.sizes.set(last,0);
+            file.weightSlot=-1;
+        }
+
+        synchronized void update(DynamicRandTreeNode file){
+            if(file.weightSlot>=0) table.sizes.set(file.weightSlot,file.size);
+        }
+
+        /**
+         * @return a file drawn by size, uniformly if all are empty, null if there are none or the draw
+         * raced a removal
+         */
+        DynamicRandTreeNode next(RandomGenerator uniform){
+            Table t=table;
+            int n=count;
+            if(n<=0) return null;
+            int slot=t.sizes.next(uniform);
+            if(slot<0) slot=uniform.nextInt(n);
+            return slot<t.files.length() ? t.files.get(slot) : null;
+        }
+
+        long total(){
+            return table.sizes.total();
+        }
+    }
+
     public Request rmdir(int index){    //  index in emptyDirs
-        if(index<emptyDirs.size()){
-            DynamicRandTreeNode result=(DynamicRandTreeNode)emptyDirs.get(index);
-            result.removeUp();
-            emptyDirs.remove(index);
-            Request r=new Request(Request.Command.RMDIR,result.toString());
-            return r;
-        }else return null;
+        DynamicRandTreeNode result=(DynamicRandTreeNode)get(emptyDirs,index);
+        if(result==null) return null;
+        int own=stripeOf(result), up=result.parent==null ? own : stripeOf(result.parent);
+        //  two stripes, always in array order
+        ReentrantLock first=stripes[Math.min(own,up)], second=stripes[Math.max(own,up)];
+        first.lock();
+        try{
+            second.lock();
+            try{
+                if(result.removed || (result.children!=null && !result.children.isEmpty())
+                        || !emptyDirs.remove(result))
+                    return null;
+                result.removeUp();
+                record(TreeJournal.RMDIR,result);
+            }finally{
+                second.unlock();
+            }
+        }finally{
+            first.unlock();
+        }
+        if(paths!=null) paths.remove(result);
+        checkpointIfDue();
+        return new Request(Request.Command.RMDIR,result.toString());
     }
 
     public Request delete(int index){   //  index in files
-        if(index<files.size()){
-            DynamicRandTreeNode result=(DynamicRandTreeNode)files.get(index);
+        DynamicRandTreeNode result=(DynamicRandTreeNode)get(files,index);
+        if(result==null) return null;
+        ReentrantLock lock=stripe(result.parent);
+        lock.lock();
+        try{
+            if(result.removed || !files.remove(result)) return null;
             result.removeUp();
-            files.remove(index);
-            Request r=new Request(Request.Command.DELETE,result.toString(),result.size);
-            return r;
-        }else return null;
+            record(TreeJournal.DELETE,result);
+        }finally{
+            lock.unlock();
+        }
+        checkpointIfDue();
+        return new Request(Request.Command.DELETE,result.toString(),result.size);
     }
 
     private Request create(int index,boolean isDir){
         DynamicRandTreeNode parent;
-        if(index>=emptyDirs.size()){
-            index-=emptyDirs.size();
-            if(index>=nonEmptyDirs.size()) return null;
-            else parent=(DynamicRandTreeNode)nonEmptyDirs.get(index);
-        }else parent=(DynamicRandTreeNode)emptyDirs.get(index);
-        DynamicRandTreeNode child=isDir ? parent.createDir(index) : parent.createFile(index);
+        int empty=emptyDirs.size();
+        if(index>=empty) parent=(DynamicRandTreeNode)get(nonEmptyDirs,index-empty);
+        else parent=(DynamicRandTreeNode)get(emptyDirs,index);
+        if(parent==null) return null;
+        DynamicRandTreeNode child;
+        ReentrantLock lock=stripe(parent);
+        lock.lock();
+        try{
+            if(parent.removed) return null;
+            child=isDir ? parent.createDir() : parent.createFile();
+            record(isDir ? TreeJournal.CREATE_DIR : TreeJournal.CREATE_FILE,child);
+        }finally{
+            lock.unlock();
+        }
+        checkpointIfDue();
         Request r=new Request(isDir ? Request.Command.CREATE_DIR : Request.Command.CREATE_FILE,child.toString());
         return r;
     }
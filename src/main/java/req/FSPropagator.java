@@ -26,7 +26,7 @@ public class FSPropagator {
     public void start() {
         try (Writer out = new BufferedWriter(new OutputStreamWriter(
                 new FileOutputStream(rankFile), "UTF-8"))) {
-            StaticTree tree = StaticTree.getStaticTree(src);
+            StaticTree tree = StaticTree.open(src);
             RandomGenerator uniform = new UniformGenerator();
             for (int i = 0; i < tree.getFileSize(); ++i) {
                 Request req=tree.fileInfo(i);
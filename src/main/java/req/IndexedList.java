@@ -0,0 +1,171 @@
+package req;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+
+/**
+ * Random access list with O(1) insert at either end, removal by index and removal by element.
+ * <p>
+ * Elements sit in a ring and each one remembers its slot through {@link Slots}, so remove(Object) needs
+ * no scan. A removal swaps the last element into the hole instead of shifting: the last element takes the
+ * removed one's index and every other element keeps its own. Elements added at the front therefore stay
+ * in the order they were added, only the elements that were at the back move.
+ * Inserting in the middle is not supported.
+ * <p>
+ * Writers synchronize on the list. get() and size() take no lock: racing with a writer they may see
+ * a neighbouring element, an element that was just removed, or null, but never throw for an index
+ * below the size they read.
+ */
+public class IndexedList<T> extends AbstractList<T> implements RandomAccess{
+    /**
+     * Where an element keeps its slot. An element may be in several lists but only remembers one slot,
+     * remove(Object) falls back to a scan when the slot it finds belongs to another list.
+     */
+    public interface Slots<T>{
+        int get(T element);
+
+        void set(T element,int slot);
+    }
+
+    final Slots<T> slots;
+    volatile Object[] ring;
+    volatile int head=0;    //  physical slot of index 0
+    volatile int size=0;
+
+    public IndexedList(Slots<T> slots){
+        this(slots,16);
+    }
+
+    public IndexedList(Slots<T> slots,int capacity){
+        this.slots=slots;
+        this.ring=new Object[Math.max(16,Integer.highestOneBit(Math.max(1,capacity-1))<<1)];
+    }
+
+    private int physical(int index){
+        return (head+index)&(ring.length-1);
+    }
+
+    @SuppressWarnings("unchecked")
+    private T at(int slot){
+        return (T)ring[slot];
+    }
+
+    private void grow(){
+        Object[] bigger=new Object[ring.length*2];
+        for(int i=0;i<size;++i){
+            T e=at(physical(i));
+            bigger[i]=e;
+            slots.set(e,i);
+        }
+        head=0;
+        ring=bigger;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public T get(int index){
+        if(index<0 || index>=size) throw new IndexOutOfBoundsException("Index: "+index+", Size: "+size);
+        Object[] r=ring;
+        return (T)r[(head+index)&(r.length-1)];
+    }
+
+    @Override
+    public synchronized T set(int index,T element){
+        T old=get(index);
+        int slot=physical(index);
+        ring[slot]=element;
+        slots.set(element,slot);
+        return old;
+    }
+
+    @Override
+    public int size(){
+        return size;
+    }
+
+    @Override
+    public synchronized boolean add(T element){
+        if(size==ring.length) grow();
+        int slot=physical(size++);
+        ring[slot]=element;
+        slots.set(element,slot);
+        ++modCount;
+        return true;
+    }
+
+    public synchronized void addFirst(T element){
+        if(size==ring.length) grow();
+        int slot=(head-1)&(ring.length-1);
+        ring[slot]=element;
+        slots.set(element,slot);
+        head=slot;
+        ++size;
+        ++modCount;
+    }
+
+    @Override
+    public synchronized void add(int index,T element){
+        if(index==0) addFirst(element);
+        else if(index==size) add(element);
+        else throw new UnsupportedOperationException("IndexedList only inserts at either end");
+    }
+
+    /**
+     * Removes the element at index and moves the last element into its place.
+     */
+    @Override
+    public synchronized T remove(int index){
+        T old=get(index);
+        removeSlot(physical(index));
+        return old;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public synchronized boolean remove(Object o){
+        int slot;
+        try{
+            slot=slots.get((T)o);
+        }catch(ClassCastException e){
+            return false;
+        }
+        if(slot<0 || slot>=ring.length || ring[slot]!=o || (slot-head&ring.length-1)>=size){
+            slot=-1;
+            for(int i=0;i<size;++i){
+                if(ring[physical(i)]==o){
+                    slot=physical(i);
+                    break;
+                }
+            }
+            if(slot<0) return false;
+        }
+        removeSlot(slot);
+        return true;
+    }
+
+    private void removeSlot(int slot){
+        int tail=physical(size-1);
+        if(slot!=tail){
+            T last=at(tail);
+            ring[slot]=last;
+            slots.set(last,slot);
+        }
+        ring[tail]=null;
+        --size;
+        ++modCount;
+    }
+
+    @Override
+    public boolean contains(Object o){
+        return indexOf(o)>=0;
+    }
+
+    @Override
+    public synchronized void clear(){
+        Arrays.fill(ring,null);
+        head=0;
+        size=0;
+        ++modCount;
+    }
+}
@@ -0,0 +1,74 @@
+package req;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts latencies in nanoseconds in log-linear buckets: 8 buckets per power of two, so a percentile is
+ * off by at most 1/8 of its value. Recording is lock-free and takes constant space.
+ */
+final class LatencyHistogram {
+
+    private static final int SUB_BITS = 3;
+
+    private static final int SUB = 1 << SUB_BITS;
+
+    private final AtomicLongArray counts = new AtomicLongArray((64 - SUB_BITS) * SUB);
+
+    private final AtomicLong max = new AtomicLong();
+
+    private final AtomicLong sum = new AtomicLong();
+
+    //  values below 2 * SUB get a bucket each, above that SUB buckets split every power of two
+    static int bucket(long value) {
+        if (value < 2 * SUB)
+            return (int) Math.max(0, value);
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        return (exponent - SUB_BITS) * SUB + (int) (value >>> (exponent - SUB_BITS));
+    }
+
+    static long lowerBound(int bucket) {
+        if (bucket < 2 * SUB)
+            return bucket;
+        return (long) ((bucket & (SUB - 1)) | SUB) << ((bucket >>> SUB_BITS) - 1);
+    }
+
+    void record(long nanos) {
+        counts.incrementAndGet(bucket(nanos));
+        sum.addAndGet(nanos);
+        for (long m = max.get(); nanos > m && !max.compareAndSet(m, nanos); m = max.get());
+    }
+
+    long count() {
+        long n = 0;
+        for (int i = 0; i < counts.length(); ++i)
+            n += counts.get(i);
+        return n;
+    }
+
+    double mean() {
+        long n = count();
+        return n == 0 ? 0 : (double) sum.get() / n;
+    }
+
+    long max() {
+        return max.get();
+    }
+
+    /**
+     * @param p in [0,1]
+     * @return the middle of the bucket holding the p-th latency, 0 if nothing was recorded
+     */
+    long percentile(double p) {
+        long n = count();
+        if (n == 0)
+            return 0;
+        long rank = Math.max(1, (long) Math.ceil(p * n));
+        for (int i = 0; i < counts.length(); ++i) {
+            rank -= counts.get(i);
+            if (rank <= 0)
+                return Math.min(max.get(), (lowerBound(i) + lowerBound(i + 1)) / 2);
+        }
+        return max.get();
+    }
+}
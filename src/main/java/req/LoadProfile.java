@@ -0,0 +1,410 @@
+package req;
+
+import req.rand.RandomGenerator;
+import req.rand.UniformGenerator;
+import util.Config;
+import util.Log;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Target request rate over the time of a run, as a sequence of phases, each a function of the time since
+ * it started. Rates are requests per ms per thread like <code>read_write_inter_arrival_rate</code>.
+ * After the last phase its final rate holds, and if that is zero threads stop there.
+ * <p>
+ * A profile is written as phases separated by <code>;</code>, each a kind followed by its duration and
+ * parameters. Durations take a ms, s, m or h suffix, seconds if there is none.
+ * <ul>
+ * <li><code>constant &lt;duration&gt; &lt;rate&gt;</code></li>
+ * <li><code>ramp &lt;duration&gt; &lt;from&gt; &lt;to&gt;</code>: linear from one rate to the other</li>
+ * <li><code>step &lt;duration&gt; &lt;from&gt; &lt;to&gt; &lt;steps&gt;</code>: the same in equal stairs</li>
+ * <li><code>diurnal &lt;duration&gt; &lt;mean&gt; &lt;amplitude&gt; &lt;period&gt;</code>: a sine around the mean</li>
+ * <li><code>burst &lt;duration&gt; &lt;on rate&gt; &lt;off rate&gt; &lt;mean on&gt; &lt;mean off&gt;</code>: switches
+ * between two rates after exponentially distributed times, the same for all threads</li>
+ * </ul>
+ * Requests are counted per phase, and each phase logs its achieved rate against its target once it is over.
+ */
+public class LoadProfile {
+
+    private static final Log log = Log.get();
+
+    /**
+     * Gaps are found by summing the rate over slices this long, except within constant phases.
+     */
+    static final long SLICE_NANOS = 1_000_000;
+
+    private final Phase[] phases;
+
+    private final long[] ends;  //  end of each phase since the start of the run, ns
+
+    private final LongAdder[] counts;
+
+    private final AtomicLong start = new AtomicLong();
+
+    private final AtomicInteger reported = new AtomicInteger();     //  phases logged so far
+
+    private volatile int threads = 1;
+
+    private LoadProfile(List<Phase> phases) {
+        this.phases = phases.toArray(new Phase[0]);
+        this.ends = new long[this.phases.length];
+        this.counts = new LongAdder[this.phases.length];
+        long end = 0;
+        for (int i = 0; i < this.phases.length; ++i) {
+            end = this.phases[i].duration == Long.MAX_VALUE ? Long.MAX_VALUE : end + this.phases[i].duration;
+            ends[i] = end;
+            counts[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * @return one phase at rate for the whole run
+     */
+    public static LoadProfile constant(double rate) {
+        List<Phase> phases = new ArrayList<>();
+        phases.add(new Constant("constant", Long.MAX_VALUE, rate));
+        return new LoadProfile(phases);
+    }
+
+    /**
+     * @return the profile of <code>load_profile</code>, or <code>read_write_inter_arrival_rate</code> throughout
+     */
+    public static LoadProfile fromConfig() {
+        return parse(Config.getInstance().getLoadProfile(), Config.getInstance().getReadWriteInterArrivalRate());
+    }
+
+    /**
+     * @param spec profile as described above, empty for a constant defaultRate
+     */
+    public static LoadProfile parse(String spec, double defaultRate) {
+        if (spec.trim().isEmpty())
+            return constant(defaultRate);
+        List<Phase> phases = new ArrayList<>();
+        for (String text : spec.split(";")) {
+            if (text.trim().isEmpty())
+                continue;
+            String[] f = text.trim().split("\\s+");
+            try {
+                phases.add(parsePhase(f));
+            } catch (RuntimeException e) {
+                throw new IllegalArgumentException("Bad load profile phase '" + text.trim() + "': " + e.getMessage(), e);
+            }
+        }
+        if (phases.isEmpty())
+            return constant(defaultRate);
+        return new LoadProfile(phases);
+    }
+
+    private static Phase parsePhase(String[] f) {
+        String kind = f[0];
+        int args = kind.equals("constant") ? 3 : kind.equals("ramp") ? 4 : kind.equals("burst") ? 6 : 5;
+        if (f.length != args)
+            throw new IllegalArgumentException("expected " + (args - 1) + " values after " + kind);
+        long duration = parseDuration(f[1]);
+        if (duration <= 0)
+            throw new IllegalArgumentException("duration must be positive");
+        switch (kind) {
+            case "constant":
+                return new Constant(text(f), duration, rate(f[2]));
+            case "ramp":
+                return new Ramp(text(f), duration, rate(f[2]), rate(f[3]));
+            case "step":
+                return new Step(text(f), duration, rate(f[2]), rate(f[3]), Integer.parseInt(f[4]));
+            case "diurnal":
+                return new Diurnal(text(f), duration, rate(f[2]), Double.parseDouble(f[3]), parseDuration(f[4]));
+            case "burst":
+                return new Burst(text(f), duration, rate(f[2]), rate(f[3]), parseDuration(f[4]), parseDuration(f[5]),
+                        new UniformGenerator());
+            default:
+                throw new IllegalArgumentException("unknown kind " + kind);
+        }
+    }
+
+    private static String text(String[] f) {
+        return String.join(" ", f);
+    }
+
+    private static double rate(String s) {
+        double rate = Double.parseDouble(s);
+        if (!(rate >= 0) || Double.isInfinite(rate))
+            throw new IllegalArgumentException("bad rate " + s);
+        return rate;
+    }
+
+    /**
+     * @return nanoseconds of a duration such as 500ms, 30s, 5m or 1h, seconds if there is no suffix
+     */
+    static long parseDuration(String s) {
+        double unit = 1e9;
+        String number = s;
+        if (s.endsWith("ms")) {
+            unit = 1e6;
+            number = s.substring(0, s.length() - 2);
+        } else if (s.endsWith("s")) {
+            number = s.substring(0, s.length() - 1);
+        } else if (s.endsWith("m")) {
+            unit = 60e9;
+            number = s.substring(0, s.length() - 1);
+        } else if (s.endsWith("h")) {
+            unit = 3600e9;
+            number = s.substring(0, s.length() - 1);
+        }
+        return (long) (Double.parseDouble(number) * unit);
+    }
+
+    /**
+     * Starts the clock of the profile unless it already runs.
+     * @param threads number of threads following the profile, for the targets in the report
+     * @return start of the run in System.nanoTime()
+     */
+    public long start(int threads) {
+        this.threads = threads;
+        return start();
+    }
+
+    long start() {
+        long now = System.nanoTime();
+        //  0 means not started, a clock that reads exactly 0 just starts one tick later
+        start.compareAndSet(0, now == 0 ? 1 : now);
+        return start.get();
+    }
+
+    private int phaseAt(long elapsed) {
+        int i = 0;
+        while (i < ends.length - 1 && elapsed >= ends[i])
+            ++i;
+        return i;
+    }
+
+    private long phaseStart(int i) {
+        return i == 0 ? 0 : ends[i - 1];
+    }
+
+    /**
+     * @param elapsed ns since the start of the run
+     * @return target rate in requests per ms per thread
+     */
+    public double rate(long elapsed) {
+        int i = phaseAt(elapsed);
+        return phases[i].rate(Math.min(elapsed - phaseStart(i), phases[i].duration));
+    }
+
+    /**
+     * Finds when the next request is due, such that the rate summed from elapsed up to then is work,
+     * so gaps follow the rate as it changes in between.
+     * @param elapsed ns since the start of the run the last request was due at
+     * @param work a draw of an exponential distribution of mean 1
+     * @return ns until the next request, -1 if the rate stays zero from here on
+     */
+    public long gap(long elapsed, double work) {
+        long t = elapsed;
+        while (true) {
+            int i = phaseAt(t);
+            double rate = rate(t);
+            //  the rate holds to the end of a constant phase and forever after the last phase
+            long slice = t >= ends[i] ? Long.MAX_VALUE
+                    : phases[i] instanceof Constant ? ends[i] - t : Math.min(SLICE_NANOS, ends[i] - t);
+            if (rate > 0) {
+                double left = work / rate * 1e6;
+                if (left <= slice)
+                    return t - elapsed + (long) left;
+            } else if (slice == Long.MAX_VALUE) {
+                return -1;
+            }
+            work -= rate * slice / 1e6;
+            t += slice;
+        }
+    }
+
+    /**
+     * Counts a request sent at elapsed ns since the start of the run, and logs the phases that are over.
+     */
+    void count(long elapsed) {
+        int i = phaseAt(elapsed);
+        counts[i].increment();
+        int done = reported.get();
+        if (i > done && reported.compareAndSet(done, i)) {
+            for (int p = done; p < i; ++p)
+                log.i(report(p, phases[p].duration));
+        }
+    }
+
+    /**
+     * Logs the phases not logged yet, the current one up to now.
+     */
+    public void finish() {
+        long elapsed = System.nanoTime() - start.get();
+        int i = phaseAt(elapsed);
+        int done = reported.getAndSet(phases.length);
+        for (int p = done; p <= i && p < phases.length; ++p)
+            log.i(report(p, Math.min(elapsed - phaseStart(p), phases[p].duration)));
+    }
+
+    private String report(int p, long length) {
+        //  finish() at a phase boundary or right after the start, a rate over no time is meaningless
+        if (length <= 0)
+            return String.format("Phase %d/%d %s: %d requests, no time elapsed",
+                    p + 1, phases.length, phases[p].text, counts[p].sum());
+        double seconds = length / 1e9;
+        double target = phases[p].expected(length) * threads / seconds;
+        double achieved = counts[p].sum() / seconds;
+        return String.format("Phase %d/%d %s: %.1f requests/s for %.1f requests/s targeted over %.1f s",
+                p + 1, phases.length, phases[p].text, achieved, target, seconds);
+    }
+
+    abstract static class Phase {
+        final String text;
+
+        final long duration;    //  ns
+
+        Phase(String text, long duration) {
+            this.text = text;
+            this.duration = duration;
+        }
+
+        /**
+         * @param t ns since the phase started
+         * @return requests per ms per thread
+         */
+        abstract double rate(long t);
+
+        /**
+         * @return requests per thread targeted in the first t ns of the phase
+         */
+        double expected(long t) {
+            final int slices = 10_000;
+            double sum = 0;
+            for (int i = 0; i < slices; ++i)
+                sum += rate((long) ((i + 0.5) * t / slices));
+            return sum * t / slices / 1e6;
+        }
+    }
+
+    static class Constant extends Phase {
+        final double rate;
+
+        Constant(String text, long duration, double rate) {
+            super(text, duration);
+            this.rate = rate;
+        }
+
+        @Override
+        double rate(long t) {
+            return rate;
+        }
+
+        @Override
+        double expected(long t) {
+            return rate * t / 1e6;
+        }
+    }
+
+    static class Ramp extends Phase {
+        final double from, to;
+
+        Ramp(String text, long duration, double from, double to) {
+            super(text, duration);
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        double rate(long t) {
+            return from + (to - from) * t / duration;
+        }
+    }
+
+    static class Step extends Phase {
+        final double from, to;
+
+        final int steps;
+
+        Step(String text, long duration, double from, double to, int steps) {
+            super(text, duration);
+            if (steps < 1)
+                throw new IllegalArgumentException("steps must be positive");
+            this.from = from;
+            this.to = to;
+            this.steps = steps;
+        }
+
+        @Override
+        double rate(long t) {
+            if (steps == 1)
+                return from;
+            int k = (int) Math.min(steps - 1, t * steps / duration);
+            return from + (to - from) * k / (steps - 1);
+        }
+    }
+
+    static class Diurnal extends Phase {
+        final double mean, amplitude;
+
+        final long period;
+
+        Diurnal(String text, long duration, double mean, double amplitude, long period) {
+            super(text, duration);
+            if (period <= 0)
+                throw new IllegalArgumentException("period must be positive");
+            this.mean = mean;
+            this.amplitude = amplitude;
+            this.period = period;
+        }
+
+        @Override
+        double rate(long t) {
+            return Math.max(0, mean + amplitude * Math.sin(2 * Math.PI * (t % period) / period));
+        }
+    }
+
+    static class Burst extends Phase {
+        final double on, off;
+
+        final long[] switches;  //  times the rate flips, starting on
+
+        Burst(String text, long duration, double on, double off, long meanOn, long meanOff, RandomGenerator uniform) {
+            super(text, duration);
+            if (meanOn <= 0 || meanOff <= 0)
+                throw new IllegalArgumentException("mean on and off times must be positive");
+            List<Long> times = new ArrayList<>();
+            boolean isOn = true;
+            for (long t = 0; t < duration; isOn = !isOn) {
+                t += (long) (-Math.log(1.0 - uniform.nextDouble()) * (isOn ? meanOn : meanOff));
+                times.add(t);
+            }
+            this.switches = new long[times.size()];
+            for (int i = 0; i < switches.length; ++i)
+                switches[i] = times.get(i);
+            this.on = on;
+            this.off = off;
+        }
+
+        //  number of switches at or before t
+        private int flips(long t) {
+            int i = Arrays.binarySearch(switches, t);
+            return i >= 0 ? i + 1 : -i - 1;
+        }
+
+        @Override
+        double rate(long t) {
+            return (flips(t) & 1) == 0 ? on : off;
+        }
+
+        @Override
+        double expected(long t) {
+            double sum = 0;
+            long from = 0;
+            for (int i = 0; from < t; ++i) {
+                long to = i < switches.length ? Math.min(t, switches[i]) : t;
+                sum += (to - from) * ((i & 1) == 0 ? on : off);
+                from = to;
+            }
+            return sum / 1e6;
+        }
+    }
+}
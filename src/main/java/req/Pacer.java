@@ -0,0 +1,47 @@
+package req;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Spaces requests by absolute deadlines: each gap is added to the previous deadline instead of to the
+ * time the wait starts, so the time spent generating a request and the slack of parking don't add up
+ * and a thread that falls behind catches up. Long gaps park until shortly before the deadline and spin
+ * the rest, short gaps only spin.
+ */
+class Pacer {
+
+    /**
+     * Parking overshoots by tens of microseconds, so the last stretch before a deadline is spun.
+     */
+    static final long SPIN_NANOS = 100_000;
+
+    private long deadline;
+
+    /**
+     * @param start first deadline in System.nanoTime()
+     */
+    Pacer(long start) {
+        deadline = start;
+    }
+
+    long getDeadline() {
+        return deadline;
+    }
+
+    /**
+     * Waits until gapNanos after the previous deadline. Returns early, clearing the flag, if the thread
+     * is interrupted, like an interrupted sleep.
+     */
+    void await(long gapNanos) {
+        deadline += gapNanos;
+        while (true) {
+            long left = deadline - System.nanoTime();
+            if (left <= 0 || Thread.interrupted())
+                return;
+            if (left > SPIN_NANOS)
+                LockSupport.parkNanos(left - SPIN_NANOS);
+            else
+                Thread.yield();
+        }
+    }
+}
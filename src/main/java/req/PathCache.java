@@ -0,0 +1,147 @@
+package req;
+
+import util.Config;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded cache of materialized directory paths, so a file path costs one lookup plus one append
+ * instead of a walk to the root.
+ * <p>
+ * Slots are direct mapped by the key's hash and a newer path simply replaces the one in its slot.
+ * The estimated footprint of the cached strings is kept within the capacity; a path that does not fit
+ * is not cached. Keys are either node objects (compared by identity) or CompactTree node ids.
+ * Lookups are lock free and safe from any number of threads.
+ */
+public class PathCache{
+    //  String + backing array headers, the entry object and its slot
+    static final int ENTRY_OVERHEAD=80;
+
+    final AtomicReferenceArray<Entry> slots;
+    final int mask;
+    final long capacity;
+    final AtomicLong used=new AtomicLong();
+    final LongAdder hits=new LongAdder();
+    final LongAdder misses=new LongAdder();
+
+    static final class Entry{
+        final Object node;
+        final int id;
+        final String path;
+
+        Entry(Object node,int id,String path){
+            this.node=node;
+            this.id=id;
+            this.path=path;
+        }
+
+        long cost(){
+            return ENTRY_OVERHEAD+2L*path.length();
+        }
+    }
+
+    /**
+     * @param capacity estimated bytes the cached paths may take
+     */
+    public PathCache(long capacity){
+        this.capacity=capacity;
+        long n=Math.max(16,Math.min(1<<26,capacity/256));
+        int size=Integer.highestOneBit((int)n);
+        this.slots=new AtomicReferenceArray<>(size);
+        this.mask=size-1;
+    }
+
+    /**
+     * @return a cache sized by <code>path_cache_size</code>, or null if caching is turned off
+     */
+    public static PathCache fromConfig(){
+        long size=Config.getInstance().getPathCacheSize();
+        return size>0 ? new PathCache(size) : null;
+    }
+
+    static int spread(int h){
+        h*=0x9E3779B9;
+        return h^(h>>>16);
+    }
+
+    String get(Object node){
+        Entry e=slots.get(spread(System.identityHashCode(node))&mask);
+        if(e!=null && e.node==node){
+            hits.increment();
+            return e.path;
+        }
+        misses.increment();
+        return null;
+    }
+
+    String get(int id){
+        Entry e=slots.get(spread(id)&mask);
+        if(e!=null && e.node==null && e.id==id){
+            hits.increment();
+            return e.path;
+        }
+        misses.increment();
+        return null;
+    }
+
+    //  probe used while looking for a cached ancestor, not counted
+    String peek(Object node){
+        Entry e=slots.get(spread(System.identityHashCode(node))&mask);
+        return e!=null && e.node==node ? e.path : null;
+    }
+
+    String peek(int id){
+        Entry e=slots.get(spread(id)&mask);
+        return e!=null && e.node==null && e.id==id ? e.path : null;
+    }
+
+    void put(Object node,String path){
+        put(spread(System.identityHashCode(node))&mask,new Entry(node,0,path));
+    }
+
+    void put(int id,String path){
+        put(spread(id)&mask,new Entry(null,id,path));
+    }
+
+    private void put(int slot,Entry e){
+        Entry old=slots.get(slot);
+        long delta=e.cost()-(old==null ? 0 : old.cost());
+        //  reserve first so racing puts cannot overshoot the capacity together
+        if(used.addAndGet(delta)>capacity && delta>0){
+            used.addAndGet(-delta);
+            return;
+        }
+        if(!slots.compareAndSet(slot,old,e)) used.addAndGet(-delta);
+    }
+
+    void remove(Object node){
+        int slot=spread(System.identityHashCode(node))&mask;
+        Entry old=slots.get(slot);
+        if(old!=null && old.node==node && slots.compareAndSet(slot,old,null)) used.addAndGet(-old.cost());
+    }
+
+    public long getHits(){
+        return hits.sum();
+    }
+
+    public long getMisses(){
+        return misses.sum();
+    }
+
+    public long getUsed(){
+        return used.get();
+    }
+
+    public long getCapacity(){
+        return capacity;
+    }
+
+    @Override
+    public String toString(){
+        long h=hits.sum(), m=misses.sum();
+        return String.format("path cache: %d hits, %d misses (%.1f%%), %d/%d bytes",
+                h,m,h+m==0 ? 0.0 : 100.0*h/(h+m),used.get(),capacity);
+    }
+}
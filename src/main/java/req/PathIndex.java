@@ -0,0 +1,65 @@
+package req;
+
+import java.util.function.IntPredicate;
+
+/**
+ * Open addressing table from the hash of a path to a node handle.
+ * <p>
+ * Paths are hashed char by char (FNV-1a over UTF-16 units), so the hash of a child continues the hash of
+ * its parent's path and a whole tree is indexed without building a single path string. Slots keep a 32 bit
+ * fingerprint of the hash only, the caller confirms a candidate against the path itself.
+ * Filled once and only read afterwards, so lookups need no lock.
+ */
+final class PathIndex{
+    static final long SEED=0xcbf29ce484222325L;
+    static final long PRIME=0x100000001b3L;
+
+    final int[] keys;       //  fingerprints, 0 marks a free slot
+    final int[] values;
+    final int mask;
+
+    PathIndex(int expected){
+        //  at most 3/4 full
+        int capacity=Integer.highestOneBit(Math.max(2,expected+expected/3)-1)<<1;
+        if(capacity<=0) throw new IllegalArgumentException("Too many paths to index: "+expected);
+        keys=new int[capacity];
+        values=new int[capacity];
+        mask=capacity-1;
+    }
+
+    static long hash(long h,String s){
+        for(int i=0;i<s.length();++i) h=(h^s.charAt(i))*PRIME;
+        return h;
+    }
+
+    static long hash(long h,char c){
+        return (h^c)*PRIME;
+    }
+
+    private static int fingerprint(long h){
+        int f=(int)h;
+        return f==0 ? 1 : f;
+    }
+
+    private int slot(long h){
+        return (int)(h*0x9E3779B97F4A7C15L>>>32)&mask;
+    }
+
+    void put(long h,int value){
+        int slot=slot(h);
+        while(keys[slot]!=0) slot=(slot+1)&mask;
+        keys[slot]=fingerprint(h);
+        values[slot]=value;
+    }
+
+    /**
+     * @return the first value stored under h that passes matches, -1 if there is none
+     */
+    int get(long h,IntPredicate matches){
+        int f=fingerprint(h);
+        for(int slot=slot(h);keys[slot]!=0;slot=(slot+1)&mask){
+            if(keys[slot]==f && matches.test(values[slot])) return values[slot];
+        }
+        return -1;
+    }
+}
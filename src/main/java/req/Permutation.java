@@ -0,0 +1,176 @@
+package req;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * A file order for StaticTree.shuffleFiles: entry j is the current index of the file that moves to j.
+ * <p>
+ * The file is either text, one index per line, or binary: the int "RQPM", the number of entries and the
+ * entries, all little endian int32. Text is read into an int[], binary is mapped and used in place.
+ */
+public class Permutation{
+    static final int MAGIC=0x4D505152;     //  "RQPM" read little endian
+    static final int HEADER=8;
+
+    final IntBuffer order;
+
+    Permutation(IntBuffer order){
+        this.order=order;
+    }
+
+    public int size(){
+        return order.limit();
+    }
+
+    public static Permutation load(String filename) throws IOException{
+        try(FileChannel channel=FileChannel.open(Paths.get(filename),StandardOpenOption.READ)){
+            ByteBuffer head=ByteBuffer.allocate(HEADER).order(ByteOrder.LITTLE_ENDIAN);
+            while(head.hasRemaining() && channel.read(head)>=0);
+            if(head.position()==HEADER && head.getInt(0)==MAGIC){
+                int n=head.getInt(4);
+                if(n<0 || HEADER+4L*n>channel.size())
+                    throw new IOException("Truncated permutation file "+filename+": "+n+" entries expected");
+                ByteBuffer body=channel.map(FileChannel.MapMode.READ_ONLY,HEADER,4L*n);
+                return new Permutation(body.order(ByteOrder.LITTLE_ENDIAN).asIntBuffer());
+            }
+        }
+        return new Permutation(IntBuffer.wrap(parseText(filename)));
+    }
+
+    //  one int per line, blank lines are skipped and lines that are not a number are logged and skipped
+    private static int[] parseText(String filename) throws IOException{
+        try(InputStream in=new FileInputStream(filename)){
+            int[] result=new int[1024];
+            int size=0, line=1;
+            long value=0;
+            boolean digits=false, negative=false, ended=false, bad=false;
+            byte[] buf=new byte[1<<16];
+            for(int n=0;n>=0;){
+                n=in.read(buf);
+                //  end of file closes the last line as if it had a line break
+                for(int i=0;i<(n<0 ? 1 : n);++i){
+                    byte b=n<0 ? (byte)'\n' : buf[i];
+                    if(b=='\n'){
+                        if(digits && !bad){
+                            if(size==result.length) result=Arrays.copyOf(result,size*2);
+                            result[size++]=(int)(negative ? -value : value);
+                        }else if(bad || negative){
+                            StaticTree.log.w("Skipping line "+line+" of "+filename+": not an index");
+                        }
+                        value=0;
+                        digits=negative=ended=bad=false;
+                        ++line;
+                    }else if(b==' ' || b=='\t' || b=='\r'){
+                        ended=digits || negative;
+                    }else if(b>='0' && b<='9' && !ended){
+                        value=value*10+(b-'0');
+                        bad|=value>(negative ? 1L<<31 : Integer.MAX_VALUE);
+                        digits=true;
+                    }else if(b=='-' && !digits && !negative){
+                        negative=true;
+                    }else{
+                        bad=true;
+                    }
+                }
+            }
+            return Arrays.copyOf(result,size);
+        }
+    }
+
+    /**
+     * Writes the binary form, which later loads are mapped from.
+     */
+    public void save(String filename) throws IOException{
+        Path target=Paths.get(filename).toAbsolutePath();
+        Path tmp=target.resolveSibling(target.getFileName()+".tmp");
+        int n=size();
+        try(FileChannel channel=FileChannel.open(tmp,StandardOpenOption.CREATE,StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)){
+            ByteBuffer buf=ByteBuffer.allocateDirect(1<<16).order(ByteOrder.LITTLE_ENDIAN);
+            buf.putInt(MAGIC).putInt(n);
+            for(int i=0;i<n;++i){
+                if(!buf.hasRemaining()) flush(channel,buf);
+                buf.putInt(order.get(i));
+            }
+            flush(channel,buf);
+        }
+        Files.move(tmp,target,StandardCopyOption.REPLACE_EXISTING,StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void flush(FileChannel channel,ByteBuffer buf) throws IOException{
+        ((Buffer)buf).flip();
+        while(buf.hasRemaining()) channel.write(buf);
+        ((Buffer)buf).clear();
+    }
+
+    /**
+     * Checks that every index in [0,size) appears exactly once.
+     */
+    public void validate(int size){
+        if(size()!=size)
+            throw new IllegalArgumentException("Internal file size: "+size+" shuffle size: "+size());
+        BitSet seen=new BitSet(size);
+        for(int j=0;j<size;++j){
+            int k=order.get(j);
+            if(k<0 || k>=size) throw new IllegalArgumentException("Shuffle index "+k+" out of range at "+j);
+            if(seen.get(k)) throw new IllegalArgumentException("Shuffle index "+k+" repeated at "+j);
+            seen.set(k);
+        }
+    }
+
+    //  cycle following, the order itself may be mapped read only so visited entries go to a bitset
+
+    <T> void applyTo(List<T> list){
+        int n=list.size();
+        BitSet done=new BitSet(n);
+        for(int i=done.nextClearBit(0);i<n;i=done.nextClearBit(i+1)){
+            T first=list.get(i);
+            int j=i;
+            for(;;){
+                done.set(j);
+                int k=next(done,i,j);
+                if(k==i) break;
+                list.set(j,list.get(k));
+                j=k;
+            }
+            list.set(j,first);
+        }
+    }
+
+    void applyTo(IntBuffer a,int n){
+        BitSet done=new BitSet(n);
+        for(int i=done.nextClearBit(0);i<n;i=done.nextClearBit(i+1)){
+            int first=a.get(i);
+            int j=i;
+            for(;;){
+                done.set(j);
+                int k=next(done,i,j);
+                if(k==i) break;
+                a.put(j,a.get(k));
+                j=k;
+            }
+            a.put(j,first);
+        }
+    }
+
+    private int next(BitSet done,int start,int j){
+        int k=order.get(j);
+        if(k!=start && done.get(k)) throw new IllegalArgumentException("Shuffle index "+k+" repeated");
+        return k;
+    }
+}
@@ -0,0 +1,102 @@
+package req;
+
+import req.rand.RandomGenerator;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The node ids of a rank file as one bitmask per line, bit k set when the line lists node k.
+ * <p>
+ * A rank file has one line per file, each a comma separated list of the node ids holding that file, as
+ * written by FSPropagator. Ids must be within [0,31].
+ */
+final class RankFile{
+    static final int MAX_KEY=31;
+    //  the key set is drawn from the lines up to this one, like the original list based shuffle did
+    static final int HEAD=1024;
+
+    final int[] masks;
+    final int size;
+    //  keys of the first lines in file order, for drawing the key exactly as a HashSet would order them
+    private final List<int[]> head;
+
+    private RankFile(int[] masks,int size,List<int[]> head){
+        this.masks=masks;
+        this.size=size;
+        this.head=head;
+    }
+
+    boolean has(int line,int key){
+        return (masks[line]>>>key&1)!=0;
+    }
+
+    static RankFile parse(String filename) throws IOException{
+        try(InputStream in=new FileInputStream(filename)){
+            int[] masks=new int[1024];
+            List<int[]> head=new ArrayList<>();
+            int[] keys=new int[MAX_KEY+1];
+            int size=0, nkeys=0, mask=0, value=-1;
+            boolean pending=false;  //  bytes seen since the last line break
+            byte[] buf=new byte[1<<16];
+            for(int n;(n=in.read(buf))>0;){
+                for(int i=0;i<n;++i){
+                    byte b=buf[i];
+                    if(b>='0' && b<='9'){
+                        value=(value<0 ? 0 : value*10)+(b-'0');
+                        if(value>MAX_KEY) throw new IOException("Node id above "+MAX_KEY+" on line "+(size+1)+" of "+filename);
+                        pending=true;
+                        continue;
+                    }
+                    if(value>=0){
+                        if((mask>>>value&1)==0 && nkeys<keys.length) keys[nkeys++]=value;
+                        mask|=1<<value;
+                        value=-1;
+                    }
+                    if(b=='\n'){
+                        if(size==masks.length) masks=Arrays.copyOf(masks,size*2);
+                        if(size<=HEAD) head.add(Arrays.copyOf(keys,nkeys));
+                        masks[size++]=mask;
+                        mask=0;
+                        nkeys=0;
+                        pending=false;
+                    }else if(b==',' || b==' ' || b=='\t' || b=='\r'){
+                        pending=true;
+                    }else{
+                        throw new IOException("Unexpected character '"+(char)b+"' on line "+(size+1)+" of "+filename);
+                    }
+                }
+            }
+            if(value>=0){
+                if((mask>>>value&1)==0) keys[nkeys++]=value;
+                mask|=1<<value;
+            }
+            if(pending){
+                if(size==masks.length) masks=Arrays.copyOf(masks,size+1);
+                if(size<=HEAD) head.add(Arrays.copyOf(keys,nkeys));
+                masks[size++]=mask;
+            }
+            return new RankFile(masks,size,head);
+        }
+    }
+
+    /**
+     * Draws the node whose files are moved to the front, among the nodes on the first lines.
+     * The candidates are put in the same order as the HashSet of boxed ids used before, so a given
+     * generator draws the same node.
+     */
+    int chooseKey(RandomGenerator generator){
+        Set<Integer> set=new HashSet<>();
+        for(int i=Math.min(HEAD,size-1);i>=0;--i){
+            for(int key : head.get(i)) set.add(key);
+        }
+        List<Integer> l=new ArrayList<>(set);
+        return l.get(generator.nextInt(l.size()));
+    }
+}
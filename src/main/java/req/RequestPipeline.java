@@ -0,0 +1,268 @@
+package req;
+
+import commonmodels.Request;
+import util.Log;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Decouples generating requests from consuming them: request threads publish into a bounded ring and
+ * consumer threads take them out and call the callback, so a slow callback no longer delays generation
+ * until the ring is full.
+ * <p>
+ * The ring is a fixed array of slots, each with a sequence number telling whether it is free for the
+ * publish or ready for the take with a given position, after Dmitry Vyukov's bounded MPMC queue. Publishers
+ * and consumers claim positions by CAS and need no lock. Consumers hand the callback runs of requests from
+ * the same thread, up to the batch size, through onRequestsGenerated.
+ */
+public class RequestPipeline implements RequestThread.RequestGenerateThreadCallBack {
+
+    private static final Log log = Log.get();
+
+    /**
+     * How a publisher waits for a free slot and a consumer for a request.
+     */
+    public enum Wait {
+        SPIN {
+            @Override
+            void idle() {
+            }
+        },
+        YIELD {
+            @Override
+            void idle() {
+                Thread.yield();
+            }
+        },
+        PARK {
+            @Override
+            void idle() {
+                LockSupport.parkNanos(PARK_NANOS);
+            }
+        };
+
+        static final long PARK_NANOS = 50_000;
+
+        abstract void idle();
+
+        public static Wait of(String name) {
+            return valueOf(name.trim().toUpperCase());
+        }
+    }
+
+    //  keeps the hot counter on a cache line of its own
+    static final class PaddedCounter extends AtomicLong {
+        private static final long serialVersionUID = 1L;
+
+        long p1, p2, p3, p4, p5, p6, p7;
+    }
+
+    private final RequestThread.RequestGenerateThreadCallBack callBack;
+
+    private final Wait wait;
+
+    private final int mask;
+
+    private final AtomicLongArray sequences;
+
+    private final Request[] requests;
+
+    private final int[] threads;
+
+    private final PaddedCounter tail = new PaddedCounter();    //  next position to publish
+
+    private final PaddedCounter head = new PaddedCounter();    //  next position to take
+
+    private final LongAdder stalls = new LongAdder();
+
+    private final LongAdder stallNanos = new LongAdder();
+
+    private final Consumer[] consumers;
+
+    private volatile boolean closed = false;
+
+    /**
+     * @param capacity slots of the ring, rounded up to a power of two
+     * @param consumerCount threads calling the callback
+     * @param batchSize most requests handed to the callback at once
+     */
+    public RequestPipeline(RequestThread.RequestGenerateThreadCallBack callBack, int capacity, int consumerCount, int batchSize, Wait wait) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        this.callBack = callBack;
+        this.wait = wait;
+        this.mask = size - 1;
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; ++i)
+            sequences.set(i, i);
+        this.requests = new Request[size];
+        this.threads = new int[size];
+        this.consumers = new Consumer[Math.max(1, consumerCount)];
+        for (int i = 0; i < consumers.length; ++i) {
+            consumers[i] = new Consumer(Math.max(1, batchSize));
+            Thread thread = new Thread(consumers[i], "request-consumer-" + i);
+            thread.setDaemon(true);
+            consumers[i].thread = thread;
+            thread.start();
+        }
+    }
+
+    public int capacity() {
+        return mask + 1;
+    }
+
+    /**
+     * @return requests published and not taken yet
+     */
+    public long occupancy() {
+        return Math.max(0, tail.get() - head.get());
+    }
+
+    @Override
+    public void onRequestGenerated(Request request, int threadId) {
+        publish(request, threadId);
+    }
+
+    @Override
+    public void onRequestsGenerated(Request[] batch, int n, int threadId) {
+        for (int i = 0; i < n; ++i)
+            publish(batch[i], threadId);
+    }
+
+    /**
+     * Puts a request into the ring, waiting while it is full.
+     */
+    public void publish(Request request, int threadId) {
+        if (offer(request, threadId))
+            return;
+        long start = System.nanoTime();
+        stalls.increment();
+        do {
+            wait.idle();
+        } while (!offer(request, threadId));
+        stallNanos.add(System.nanoTime() - start);
+    }
+
+    private boolean offer(Request request, int threadId) {
+        long pos = tail.get();
+        while (true) {
+            int slot = (int) pos & mask;
+            long dif = sequences.get(slot) - pos;
+            if (dif == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    requests[slot] = request;
+                    threads[slot] = threadId;
+                    sequences.lazySet(slot, pos + 1);
+                    return true;
+                }
+                pos = tail.get();
+            } else if (dif < 0) {
+                return false;   //  the slot still holds the request of the previous lap
+            } else {
+                pos = tail.get();
+            }
+        }
+    }
+
+    /**
+     * Takes the requests at the head of the ring that come from the same thread as the first one.
+     * @return number of requests put into out, the thread is in threadOut[0]
+     */
+    private int take(Request[] out, int[] threadOut) {
+        int n = 0;
+        long pos = head.get();
+        while (n < out.length) {
+            int slot = (int) pos & mask;
+            long dif = sequences.get(slot) - (pos + 1);
+            if (dif == 0) {
+                if (n > 0 && threads[slot] != threadOut[0])
+                    break;
+                if (head.compareAndSet(pos, pos + 1)) {
+                    if (n == 0)
+                        threadOut[0] = threads[slot];
+                    out[n++] = requests[slot];
+                    requests[slot] = null;
+                    sequences.lazySet(slot, pos + mask + 1);
+                    ++pos;
+                } else {
+                    pos = head.get();
+                }
+            } else if (dif < 0) {
+                break;  //  empty
+            } else {
+                pos = head.get();
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Waits until the ring is drained, stops the consumers and logs the statistics.
+     * Nothing may be published from now on.
+     */
+    public void close() {
+        closed = true;
+        long maxOccupancy = 0;
+        double occupancySum = 0;
+        long samples = 0, taken = 0;
+        for (Consumer consumer : consumers) {
+            try {
+                consumer.thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            maxOccupancy = Math.max(maxOccupancy, consumer.maxOccupancy);
+            occupancySum += consumer.occupancySum;
+            samples += consumer.samples;
+            taken += consumer.taken;
+        }
+        log.i(String.format("Pipeline of %d slots: %d requests, occupancy %.1f on average and %d at most, "
+                        + "%d publishes stalled for %.1f ms in total",
+                capacity(), taken, samples == 0 ? 0 : occupancySum / samples, maxOccupancy,
+                stalls.sum(), stallNanos.sum() / 1e6));
+    }
+
+    private class Consumer implements Runnable {
+        final Request[] batch;
+
+        final int[] producer = new int[1];
+
+        Thread thread;
+
+        long taken, samples, maxOccupancy;
+
+        double occupancySum;
+
+        Consumer(int batchSize) {
+            this.batch = new Request[batchSize];
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                long occupancy = occupancy();
+                int n = take(batch, producer);
+                if (n == 0) {
+                    if (closed && occupancy() == 0)
+                        return;
+                    wait.idle();
+                    continue;
+                }
+                occupancySum += occupancy;
+                maxOccupancy = Math.max(maxOccupancy, occupancy);
+                ++samples;
+                taken += n;
+                try {
+                    if (n == 1)
+                        callBack.onRequestGenerated(batch[0], producer[0]);
+                    else
+                        callBack.onRequestsGenerated(batch, n, producer[0]);
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+}
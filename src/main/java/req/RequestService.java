@@ -1,16 +1,20 @@
 package req;
 
 import req.gen.RequestGenerator;
+import util.Config;
+import util.Log;
 
 import java.util.concurrent.*;
 
 public class RequestService {
 
+    private static final Log log = Log.get();
+
     private final int numberOfThreads;
 
     private final RequestGenerator generator;
 
-    private final double interArrivalRate;
+    private final LoadProfile profile;
 
     private final RequestThread.RequestGenerateThreadCallBack callBack;
 
@@ -18,26 +22,99 @@ public class RequestService {
 
     private final CountDownLatch latch;
 
+    private final boolean virtualThreads;
+
+    private final int batchSize;
+
+    private final long lingerMillis;
+
+    private final int ringSize;
+
     public RequestService(int numberOfThreads, double interArrivalRate, int numOfRequests, RequestGenerator generator, RequestThread.RequestGenerateThreadCallBack callBack) {
+        this(numberOfThreads, LoadProfile.constant(interArrivalRate), numOfRequests, generator, callBack);
+    }
+
+    public RequestService(int numberOfThreads, LoadProfile profile, int numOfRequests, RequestGenerator generator, RequestThread.RequestGenerateThreadCallBack callBack) {
+        this(numberOfThreads, profile, numOfRequests, generator, callBack,
+                Config.getInstance().getCallbackBatchSize(), Config.getInstance().getCallbackLinger());
+    }
+
+    /**
+     * @param batchSize requests each thread hands to the callback at once
+     * @param lingerMillis longest a request waits for its batch to fill, 0 to wait until it is full
+     */
+    public RequestService(int numberOfThreads, LoadProfile profile, int numOfRequests, RequestGenerator generator, RequestThread.RequestGenerateThreadCallBack callBack,
+                          int batchSize, long lingerMillis) {
         this.numberOfThreads = numberOfThreads;
         this.generator = generator;
-        this.interArrivalRate = interArrivalRate;
+        this.profile = profile;
         this.numOfRequests = numOfRequests;
         this.callBack = callBack;
         this.latch = new CountDownLatch(numberOfThreads);
+        this.virtualThreads = Config.getInstance().getThreadMode().equals(Config.THREAD_MODE_VIRTUAL);
+        this.batchSize = batchSize;
+        this.lingerMillis = lingerMillis;
+        this.ringSize = Config.getInstance().getPipelineRingSize();
     }
 
     public void start() {
-        ScheduledExecutorService pool = Executors.newScheduledThreadPool(numberOfThreads);
+        ExecutorService pool = virtualThreads ? newVirtualThreadExecutor() : null;
+        if (pool == null) {
+            if (virtualThreads)
+                log.w("Virtual threads need Java 21 or later, running " + numberOfThreads + " platform threads");
+            pool = Executors.newFixedThreadPool(numberOfThreads);
+        }
+        AsyncDispatcher dispatcher = callBack instanceof RequestThread.RequestAsyncCallBack ? newDispatcher() : null;
+        //  with a pipeline the consumers batch, request threads publish every request as it is generated,
+        //  taking its in-flight permits first so a thread at its cap never stalls a consumer
+        RequestPipeline pipeline = ringSize > 0
+                ? newPipeline(dispatcher == null ? callBack : dispatcher.issuing()) : null;
+        RequestThread.RequestGenerateThreadCallBack target = pipeline == null
+                ? (dispatcher == null ? callBack : dispatcher)
+                : (dispatcher == null ? pipeline : dispatcher.admitting(pipeline));
+        profile.start(numberOfThreads);
         for (int i = 0; i < numberOfThreads; ++i) {
-            pool.schedule(new RequestThread(generator, latch, i, numOfRequests, interArrivalRate, callBack),
-                    0, TimeUnit.MILLISECONDS);
+            pool.execute(pipeline == null
+                    ? new RequestThread(generator, latch, i, numOfRequests, profile, target, batchSize, lingerMillis)
+                    : new RequestThread(generator, latch, i, numOfRequests, profile, target, 1, 0));
         }
         try {
             latch.await();
         } catch (InterruptedException ignored) {}
         finally {
             pool.shutdownNow();
+            if (pipeline != null)
+                pipeline.close();
+            if (dispatcher != null)
+                dispatcher.close(Config.getInstance().getInFlightDrainTimeout());
+            profile.finish();
+            for (PathCache cache : generator.getPathCaches())
+                log.i(cache.toString());
+        }
+    }
+
+    private AsyncDispatcher newDispatcher() {
+        Config config = Config.getInstance();
+        return new AsyncDispatcher((RequestThread.RequestAsyncCallBack) callBack, numberOfThreads,
+                config.getMaxInFlight(), config.getMaxInFlightPerClient(),
+                config.getInFlightOverflow().equals(Config.IN_FLIGHT_OVERFLOW_DROP));
+    }
+
+    private RequestPipeline newPipeline(RequestThread.RequestGenerateThreadCallBack target) {
+        Config config = Config.getInstance();
+        return new RequestPipeline(target, ringSize, config.getPipelineConsumers(), batchSize,
+                RequestPipeline.Wait.of(config.getPipelineWait()));
+    }
+
+    /**
+     * @return an executor starting a virtual thread per task, null if the JVM has none. Looked up by
+     * reflection so the project still builds for Java 8.
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
         }
     }
 }
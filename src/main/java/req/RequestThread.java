@@ -2,10 +2,13 @@ package req;
 
 import commonmodels.Request;
 import req.gen.RequestGenerator;
-import req.rand.ExpGenerator;
+import req.rand.BufferedGenerator;
 import req.rand.RandomGenerator;
+import req.rand.RandomStreams;
 import req.rand.UniformGenerator;
+import req.rand.ZigguratExpGenerator;
 
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CountDownLatch;
 
 public class RequestThread implements Runnable {
@@ -18,44 +21,103 @@ public class RequestThread implements Runnable {
 
     private final int threadId;
 
-    private final RandomGenerator possionGenerator;
+    private final RandomGenerator possionGenerator;     //  gaps of mean 1, scaled by the rate
+
+    private final LoadProfile profile;
 
     private int numOfRequests;
 
+    private final Request[] batch;  //  null when every request is handed over on its own
+
+    private final long lingerNanos;
+
+    private int batched;
+
+    private long firstDue;      //  when the oldest request of the batch was due, ns since the start
+
     public RequestThread(RequestGenerator requestGenerator, CountDownLatch latch, int threadId, int numOfRequests, double interArrivalRate, RequestGenerateThreadCallBack callBack) {
+        this(requestGenerator, latch, threadId, numOfRequests, LoadProfile.constant(interArrivalRate), callBack);
+    }
+
+    public RequestThread(RequestGenerator requestGenerator, CountDownLatch latch, int threadId, int numOfRequests, LoadProfile profile, RequestGenerateThreadCallBack callBack) {
+        this(requestGenerator, latch, threadId, numOfRequests, profile, callBack, 1, 0);
+    }
+
+    /**
+     * @param batchSize requests handed to the callback at once through onRequestsGenerated, 1 calls
+     *                  onRequestGenerated for each request
+     * @param lingerMillis longest a request waits for its batch to fill, 0 to wait until it is full
+     */
+    public RequestThread(RequestGenerator requestGenerator, CountDownLatch latch, int threadId, int numOfRequests, LoadProfile profile, RequestGenerateThreadCallBack callBack,
+                         int batchSize, long lingerMillis) {
         this.requestGenerator = requestGenerator;
         this.callBack = callBack;
         this.latch = latch;
         this.threadId = threadId;
         this.numOfRequests = numOfRequests;
-        this.possionGenerator = new ExpGenerator(interArrivalRate, 1, new UniformGenerator());
+        this.profile = profile;
+        //  a small block, there may be a RequestThread per simulated client
+        this.possionGenerator = new ZigguratExpGenerator(1, 1,
+                new BufferedGenerator(new UniformGenerator(), Integer.MAX_VALUE, 32));
+        this.batch = batchSize > 1 ? new Request[batchSize] : null;
+        this.lingerNanos = lingerMillis > 0 ? lingerMillis * 1_000_000 : Long.MAX_VALUE;
     }
 
     @Override
     public void run() {
+        RandomStreams.bind(threadId);
+        long start = profile.start();
+        Pacer pacer = new Pacer(start);
         while (true) {
-            if (numOfRequests == -1) {
-                generate();
-            } else if (numOfRequests > 0) {
-                generate();
-                numOfRequests--;
-            } else {
+            if (numOfRequests != -1 && numOfRequests <= 0) {
+                flush();
                 latch.countDown();
                 Thread.currentThread().interrupt();
                 break;
             }
 
-            try {
-                long delay = (long)possionGenerator.nextDouble();
-                Thread.sleep(delay);
-            } catch (InterruptedException ignored) {}
+            long elapsed = pacer.getDeadline() - start;
+            generate(elapsed);
+            if (numOfRequests > 0)
+                numOfRequests--;
+            profile.count(elapsed);
+
+            long gap = profile.gap(elapsed, possionGenerator.nextDouble());
+            if (gap < 0) {
+                numOfRequests = 0;  //  the rate stays zero, nothing more to send
+            } else {
+                //  the next request would come too late to join the batch, don't keep this one waiting
+                if (batched > 0 && elapsed + gap - firstDue >= lingerNanos)
+                    flush();
+                pacer.await(gap);
+            }
         }
     }
 
-    private void generate() {
+    private void generate(long due) {
         try {
             Request request = requestGenerator.next(threadId);
-            callBack.onRequestGenerated(request, threadId);
+            if (batch == null) {
+                callBack.onRequestGenerated(request, threadId);
+                return;
+            }
+            if (batched == 0)
+                firstDue = due;
+            batch[batched++] = request;
+            if (batched == batch.length)
+                flush();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void flush() {
+        if (batched == 0)
+            return;
+        int n = batched;
+        batched = 0;
+        try {
+            callBack.onRequestsGenerated(batch, n, threadId);
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -63,5 +125,45 @@ public class RequestThread implements Runnable {
 
     public interface RequestGenerateThreadCallBack {
         void onRequestGenerated(Request request, int threadId);
+
+        /**
+         * Takes the requests batch[0..n) at once, handing them to onRequestGenerated one by one unless
+         * overridden. batch is reused once this returns.
+         */
+        default void onRequestsGenerated(Request[] batch, int n, int threadId) {
+            for (int i = 0; i < n; ++i)
+                onRequestGenerated(batch[i], threadId);
+        }
+    }
+
+    /**
+     * A callback that only takes batches, such as one writing requests to a file or a socket and
+     * flushing once per batch.
+     */
+    public interface RequestBatchCallBack extends RequestGenerateThreadCallBack {
+        @Override
+        void onRequestsGenerated(Request[] batch, int n, int threadId);
+
+        @Override
+        default void onRequestGenerated(Request request, int threadId) {
+            onRequestsGenerated(new Request[]{request}, 1, threadId);
+        }
+    }
+
+    /**
+     * A callback that issues requests without waiting for them, such as one sending them over the network.
+     * RequestService bounds the requests in flight, those whose future has not completed yet, and logs
+     * how long they took to complete.
+     */
+    public interface RequestAsyncCallBack extends RequestGenerateThreadCallBack {
+        /**
+         * @return completes when the request does, null if it already has
+         */
+        CompletableFuture<?> onRequestIssued(Request request, int threadId);
+
+        @Override
+        default void onRequestGenerated(Request request, int threadId) {
+            onRequestIssued(request, threadId);
+        }
     }
 }
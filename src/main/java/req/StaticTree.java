@@ -1,16 +1,29 @@
 package req;
 
 import commonmodels.Request;
+import req.rand.AliasTable;
 import req.rand.RandomGenerator;
 import req.rand.UniformGenerator;
+import util.Config;
 import util.Log;
 
 import java.io.BufferedReader;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.security.InvalidParameterException;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -22,6 +35,10 @@ public class StaticTree{
     List<RandTreeNode> files=new ArrayList<>();
     String sep=null;
     RandTreeNode root;
+    PathCache paths=null;
+    volatile PathIndex pathIndex=null;
+    volatile AliasTable fileWeights=null;   //  dropped whenever the files are reordered or resized
+    RandTreeNode[] indexed;     //  nodes by their value in pathIndex
 
     public RandTreeNode getRoot() {
         return root;
@@ -51,42 +68,43 @@ public class StaticTree{
         return sep;
     }
 
+    public PathCache getPathCache() {
+        return paths;
+    }
+
+    /**
+     * @param paths cache for directory paths, null to build every path from the root
+     */
+    public void setPathCache(PathCache paths) {
+        this.paths = paths;
+    }
+
     public void shuffleFiles(String file) throws IOException{
-        List<Integer> list=parseShuffle(file);
-        if(list.size()!=files.size())
-            throw new IllegalArgumentException("Internal file size: "+files.size()+" shuffle size: "+list.size());
-        for(int i=0;i<files.size();++i){
-            RandTreeNode n1=files.get(i);
-            int j=i;
-            for(;;){
-                int k=list.get(j);
-                list.set(j,j);
-                if(k==i) break;
-                files.set(j,files.get(k));
-                j=k;
-            }
-            files.set(j,n1);
-        }
+        shuffleFiles(file,true);
+    }
+
+    /**
+     * Reorders the files by a permutation file, see {@link Permutation} for the formats.
+     * @param validate check that the file is a permutation of the file indexes before moving anything,
+     *                 otherwise a bad file is only noticed once some files have moved
+     */
+    public void shuffleFiles(String file,boolean validate) throws IOException{
+        Permutation order=Permutation.load(file);
+        if(order.size()!=files.size())
+            throw new IllegalArgumentException("Internal file size: "+files.size()+" shuffle size: "+order.size());
+        if(validate) order.validate(files.size());
+        order.applyTo(files);
+        fileWeights=null;
     }
 
     public void shuffleFiles(){
         plainShuffle(files,generator);
+        fileWeights=null;
     }
 
     public void shuffleFilesUneven(String shuffle) throws IOException{
-        try(BufferedReader in=new BufferedReader(new InputStreamReader(
-                new FileInputStream(shuffle),"UTF-8"))){
-            List<List<Integer>> order=new ArrayList<>();
-            for(String line;(line=in.readLine())!=null;){
-                String[] strArray=line.split(",\\s");
-                List<Integer> sort=new ArrayList<>();
-                for(String s : strArray){
-                    if(s.trim().length()>0) sort.add(Integer.parseInt(s));
-                }
-                order.add(sort);
-            }
-            unevenShuffle(files,generator,order);
-        }
+        unevenShuffle(files,generator,RankFile.parse(shuffle));
+        fileWeights=null;
     }
 
     //  Fisher–Yates
@@ -99,6 +117,16 @@ public class StaticTree{
         }
     }
 
+    //  Fisher–Yates over a[from,to), draws the same sequence as the List version
+    static void plainShuffle(IntBuffer a,int from,int to,RandomGenerator generator){
+        for(int i=to-from-1;i>0;--i){
+            int j=generator.nextInt(i+1);
+            int t=a.get(from+i);
+            a.put(from+i,a.get(from+j));
+            a.put(from+j,t);
+        }
+    }
+
 //	static <T,K> void evenShuffle(List<T> list,RandomGenerator generator,List<List<K>> weight){
 //		if(list.size()!=weight.size())
 //			throw new IllegalArgumentException("Original list size and weight size do not match.");
@@ -173,19 +201,39 @@ public class StaticTree{
         list.addAll(keepList);
     }
 
-    static public List<Integer> parseShuffle(String file) throws IOException{
-        try(BufferedReader br=new BufferedReader(new InputStreamReader(new FileInputStream(file),"UTF8"))){
-            List<Integer> result=new ArrayList<>();
-            for(String line;(line=br.readLine())!=null;){
-                if(line.trim().length()==0) continue;
-                try{
-                    result.add(Integer.parseInt(line));
-                }catch(NumberFormatException e){
-                    log.w(e);
-                }
-            }
-            return result;
+    //  same partition and draws as above, moving the chosen node's files to the front in one pass
+    @SuppressWarnings("unchecked")
+    static <T> void unevenShuffle(List<T> list,RandomGenerator generator,RankFile rank){
+        int size=list.size();
+        if(size!=rank.size)
+            throw new IllegalArgumentException("Original list size and weight size do not match.");
+        int chosen=rank.chooseKey(generator);
+        Object[] keep=new Object[size];
+        int removed=0, kept=0;
+        for(int i=0;i<size;++i){
+            T t=list.get(i);
+            if(rank.has(i,chosen)) list.set(removed++,t);
+            else keep[kept++]=t;
         }
+        for(int i=0;i<kept;++i) list.set(removed+i,(T)keep[i]);
+        plainShuffle(list.subList(removed,size),generator);
+        plainShuffle(list.subList(0,removed),generator);
+    }
+
+    static void unevenShuffle(IntBuffer list,int size,RandomGenerator generator,RankFile rank){
+        if(size!=rank.size)
+            throw new IllegalArgumentException("Original list size and weight size do not match.");
+        int chosen=rank.chooseKey(generator);
+        int[] keep=new int[size];
+        int removed=0, kept=0;
+        for(int i=0;i<size;++i){
+            int t=list.get(i);
+            if(rank.has(i,chosen)) list.put(removed++,t);
+            else keep[kept++]=t;
+        }
+        for(int i=0;i<kept;++i) list.put(removed+i,keep[i]);
+        plainShuffle(list,removed,size,generator);
+        plainShuffle(list,0,removed,generator);
     }
 
     protected RandTreeNode emptyNode(){
@@ -206,8 +254,38 @@ public class StaticTree{
     }
 
     public static StaticTree getStaticTree(String filename) throws IOException{
+        return getStaticTree(filename,1);
+    }
+
+    /**
+     * @param threads threads scanning the dump, see {@link TreeParser#parse(String,int)}
+     */
+    public static StaticTree getStaticTree(String filename,int threads) throws IOException{
         StaticTree tree=new StaticTree();
-        new TreeParser<StaticTree, RandTreeNode>().parse(tree,filename,false);
+        new TreeParser(tree.new NodeSink(),false).parse(filename,threads);
+        return tree;
+    }
+
+    /**
+     * Loads a static tree in the layout chosen by <code>tree_layout</code> in the configuration file,
+     * or maps its snapshot instead if one sits next to the dump and is not older than it.
+     */
+    public static StaticTree open(String filename) throws IOException{
+        StaticTree tree=null;
+        if(TreeSnapshot.isFresh(filename)){
+            try{
+                tree=CompactTree.load(TreeSnapshot.snapshotOf(filename));
+            }catch(IOException e){
+                log.w("Ignoring snapshot of "+filename+": "+e.getMessage());
+            }
+        }
+        if(tree==null){
+            int threads=Config.getInstance().getParseThreads();
+            if(Config.getInstance().getTreeLayout().equals(Config.TREE_LAYOUT_COMPACT))
+                tree=CompactTree.getCompactTree(filename,threads);
+            else tree=getStaticTree(filename,threads);
+        }
+        tree.setPathCache(PathCache.fromConfig());
         return tree;
     }
 
@@ -215,10 +293,18 @@ public class StaticTree{
         return String.format("%8X",generator.nextInt()).trim() + String.format("%8X",generator.nextInt()).trim();
     }
 
+    static final AtomicLongFieldUpdater<RandTreeNode> TOTAL_SIZE=
+            AtomicLongFieldUpdater.newUpdater(RandTreeNode.class,"totalSize");
+    static final AtomicIntegerFieldUpdater<RandTreeNode> FILE_COUNT=
+            AtomicIntegerFieldUpdater.newUpdater(RandTreeNode.class,"fileCount");
+
     public class RandTreeNode{
         RandTreeNode parent=null;
         String name=null;
         long size=0;
+        //  over the files at or under this node
+        volatile long totalSize=0;
+        volatile int fileCount=0;
 
         protected RandTreeNode(){
         }
@@ -250,13 +336,34 @@ public class StaticTree{
             return size;
         }
 
+        /**
+         * @return bytes of all files at or under this node
+         */
+        public long getTotalSize() {
+            return totalSize;
+        }
+
+        /**
+         * @return number of files at or under this node
+         */
+        public int getFileCount() {
+            return fileCount;
+        }
+
+        //  adds to this node and every ancestor
+        void addTotals(long bytes,int count){
+            for(RandTreeNode n=this;n!=null;n=n.parent){
+                if(bytes!=0) TOTAL_SIZE.addAndGet(n,bytes);
+                if(count!=0) FILE_COUNT.addAndGet(n,count);
+            }
+        }
+
         @Override
         public String toString(){
-            if(parent!=null){
-                if(parent.name.endsWith(sep))
-                    return parent.toString()+name;
-                else return parent.toString()+sep+name;
-            }else return name;
+            if(parent==null) return name;
+            StringBuilder sb=new StringBuilder(dirPath(parent));
+            if(!parent.name.endsWith(sep)) sb.append(sep);
+            return sb.append(name).toString();
         }
 
         public String toTreeString(boolean isLast) {
@@ -264,6 +371,112 @@ public class StaticTree{
         }
     }
 
+    /**
+     * Path of a directory, served from the path cache when possible. Misses walk up only to the
+     * nearest cached ancestor and append the remaining names in one pass.
+     */
+    String dirPath(RandTreeNode dir){
+        if(dir.parent==null) return dir.name;
+        PathCache cache=paths;
+        String cached;
+        if(cache!=null && (cached=cache.get(dir))!=null) return cached;
+        RandTreeNode[] chain=new RandTreeNode[16];
+        int depth=0;
+        String prefix=null;
+        for(RandTreeNode n=dir;n!=null;n=n.parent){
+            if(n!=dir && cache!=null && (prefix=cache.peek(n))!=null) break;
+            if(depth==chain.length) chain=Arrays.copyOf(chain,depth*2);
+            chain[depth++]=n;
+        }
+        StringBuilder sb=new StringBuilder(64);
+        RandTreeNode last;
+        if(prefix!=null){
+            sb.append(prefix);
+            last=chain[depth-1].parent;
+        }else{
+            last=chain[--depth];
+            sb.append(last.name);
+        }
+        while(depth>0){
+            if(!last.name.endsWith(sep)) sb.append(sep);
+            last=chain[--depth];
+            sb.append(last.name);
+        }
+        String path=sb.toString();
+        if(cache!=null) cache.put(dir,path);
+        return path;
+    }
+
+    /**
+     * Finds the file or directory whose path is path, as carried by the requests of this tree (directories
+     * end with the separator). The first call indexes every entry, which takes one pass over the tree and
+     * about 8 bytes per slot, later calls cost one hash of the path plus one comparison.
+     * @return the node, null if the tree has no such entry
+     */
+    public RandTreeNode lookup(String path){
+        PathIndex index=pathIndex;
+        if(index==null) index=indexPaths();
+        RandTreeNode[] nodes=indexed;
+        int i=index.get(PathIndex.hash(PathIndex.SEED,path),n->matches(nodes[n],path));
+        return i<0 ? null : nodes[i];
+    }
+
+    synchronized PathIndex indexPaths(){
+        if(pathIndex!=null) return pathIndex;
+        //  directories first, ancestors before children, so every parent hash is known when its children come
+        Map<RandTreeNode,Long> dirs=new IdentityHashMap<>();
+        List<RandTreeNode> nodes=new ArrayList<>();
+        for(List<RandTreeNode> list : Arrays.asList(nonEmptyDirs,emptyDirs)){
+            for(RandTreeNode dir : list) hashDir(dir,dirs,nodes);
+        }
+        for(RandTreeNode file : files){
+            if(file.parent!=null) hashDir(file.parent,dirs,nodes);
+        }
+        PathIndex index=new PathIndex(nodes.size()+files.size());
+        for(int i=0;i<nodes.size();++i) index.put(dirs.get(nodes.get(i)),i);
+        for(RandTreeNode file : files){
+            if(dirs.containsKey(file)) continue;
+            index.put(childHash(file,file.parent==null ? 0 : dirs.get(file.parent)),nodes.size());
+            nodes.add(file);
+        }
+        indexed=nodes.toArray(new RandTreeNode[0]);
+        pathIndex=index;
+        return index;
+    }
+
+    private void hashDir(RandTreeNode dir,Map<RandTreeNode,Long> dirs,List<RandTreeNode> nodes){
+        if(dirs.containsKey(dir)) return;
+        List<RandTreeNode> chain=new ArrayList<>();
+        for(RandTreeNode n=dir;n!=null && !dirs.containsKey(n);n=n.parent) chain.add(n);
+        for(int i=chain.size()-1;i>=0;--i){
+            RandTreeNode n=chain.get(i);
+            dirs.put(n,childHash(n,n.parent==null ? 0 : dirs.get(n.parent)));
+            nodes.add(n);
+        }
+    }
+
+    //  hash of the path of node given the hash of its parent's path, joined the way toString() joins them
+    private long childHash(RandTreeNode node,long parentHash){
+        if(node.parent==null) return PathIndex.hash(PathIndex.SEED,node.name);
+        long h=parentHash;
+        if(!node.parent.name.endsWith(sep)) h=PathIndex.hash(h,sep);
+        return PathIndex.hash(h,node.name);
+    }
+
+    //  compares path against the names from node up, without building the node's path
+    private boolean matches(RandTreeNode node,String path){
+        int end=path.length();
+        for(RandTreeNode n=node;;n=n.parent){
+            end-=n.name.length();
+            if(end<0 || !path.startsWith(n.name,end)) return false;
+            if(n.parent==null) return end==0;
+            if(!n.parent.name.endsWith(sep)){
+                end-=sep.length();
+                if(end<0 || !path.startsWith(sep,end)) return false;
+            }
+        }
+    }
+
     public int getNonEmptyDirSize(){
         return nonEmptyDirs.size();
     }
@@ -284,49 +497,274 @@ public class StaticTree{
         return new Request(result.toString(),result.size);
     }
 
+    /**
+     * Picks a file with probability proportional to its size, in O(1). The sizes are weighed on the first
+     * call and again after a shuffle or a size update.
+     * @param uniform uniform generator to draw with
+     * @return the file, null if there are no files
+     */
+    public Request fileInfoBySize(RandomGenerator uniform){
+        int index=fileWeights().next(uniform);
+        return index<0 ? null : fileInfo(index);
+    }
+
+    /**
+     * @return bytes of all files as weighed by {@link #fileInfoBySize}
+     */
+    public long getWeightedFileSize(){
+        return fileWeights().total();
+    }
+
+    long fileSize(int index){
+        return files.get(index).size;
+    }
+
+    AliasTable fileWeights(){
+        AliasTable table=fileWeights;
+        return table!=null ? table : weighFiles();
+    }
+
+    private synchronized AliasTable weighFiles(){
+        if(fileWeights==null) fileWeights=new AliasTable(getFileSize(),this::fileSize);
+        return fileWeights;
+    }
+
     public void updateFileSize(int index,long newSize){
-        files.get(index).size=newSize;
+        RandTreeNode file=files.get(index);
+        long old=file.size;
+        file.size=newSize;
+        file.addTotals(newSize-old,0);
+        fileWeights=null;
     }
 
-    protected static class TreeParser<Tree extends StaticTree,Node extends RandTreeNode>{
+    /**
+     * Sums the file totals bottom up in one pass.
+     * @param nodes every node of the tree, parents before their children
+     */
+    void sumTotals(List<? extends RandTreeNode> nodes){
+        for(RandTreeNode n : nodes){
+            n.totalSize=0;
+            n.fileCount=0;
+        }
+        for(RandTreeNode f : files){
+            f.totalSize=f.size;
+            f.fileCount=1;
+        }
+        for(int i=nodes.size()-1;i>=0;--i){
+            RandTreeNode n=nodes.get(i), p=n.parent;
+            if(p!=null){
+                p.totalSize+=n.totalSize;
+                p.fileCount+=n.fileCount;
+            }
+        }
+    }
+
+    /**
+     * Receives the nodes assembled by {@link TreeParser}. Nodes are addressed by the handle returned from
+     * {@link #node(String,long)}, handed out in dump order, so the same assembly logic can fill either
+     * RandTreeNode objects or the columnar arrays of {@link CompactTree}.
+     */
+    protected interface TreeSink{
+        int node(String name,long size);
+
+        default int node(byte[] utf8,int offset,int length,long size){
+            return node(new String(utf8,offset,length,StandardCharsets.UTF_8),size);
+        }
+
+        void link(int child,int parent);
+
+        String name(int node);
+
+        void sep(String sep);
+
+        void root(int node);
+
+        void file(int node);
+
+        void nonEmptyDir(int node);
+
+        void emptyDir(int node);
+
+        //  all lines are in
+        default void done(){
+        }
+    }
+
+    protected class NodeSink implements TreeSink{
+        //  handle -> node, only alive while parsing
+        final List<RandTreeNode> nodes=new ArrayList<>();
+
+        @Override
+        public int node(String name,long size){
+            RandTreeNode node=emptyNode();
+            node.name=name;
+            node.size=size;
+            nodes.add(node);
+            return nodes.size()-1;
+        }
+
+        @Override
+        public void link(int child,int parent){
+            nodes.get(child).setParent(nodes.get(parent));
+        }
+
+        @Override
+        public String name(int node){
+            return nodes.get(node).name;
+        }
+
+        @Override
+        public void sep(String sep){
+            StaticTree.this.sep=sep;
+        }
+
+        @Override
+        public void root(int node){
+            root=nodes.get(node);
+        }
+
+        @Override
+        public void file(int node){
+            files.add(nodes.get(node));
+        }
+
+        @Override
+        public void nonEmptyDir(int node){
+            nonEmptyDirs.add(nodes.get(node));
+        }
+
+        @Override
+        public void emptyDir(int node){
+            emptyDirs.add(nodes.get(node));
+        }
+
+        @Override
+        public void done(){
+            //  handles come in dump order, so parents before children
+            sumTotals(nodes);
+        }
+    }
+
+    protected static class TreeParser{
         static Pattern reg=Pattern.compile("(\\[\\s*(\\d+)\\s+(\\d+)\\]\\s+)?(.+)");
-        Deque<Node> ancestors=new ArrayDeque<>();
-        Deque<Node> pendingFiles=new ArrayDeque<>();
-
-        protected void rollback(int indent,Tree tree,boolean fillEmpty){
-            if(ancestors.size()>0){
-                Node last=ancestors.removeLast();
-                if(ancestors.size()==0){
-                    if(fillEmpty) tree.emptyDirs.add(last);
+        final TreeSink sink;
+        final boolean fillEmpty;
+        String sep=null;
+        byte[] sepBytes=null;
+        int[] ancestors=new int[64];
+        int depth=0;
+        int[] pendingFiles=new int[64];
+        int pending=0;
+
+        protected TreeParser(TreeSink sink,boolean fillEmpty){
+            this.sink=sink;
+            this.fillEmpty=fillEmpty;
+        }
+
+        protected void rollback(int indent){
+            if(depth>0){
+                int last=ancestors[--depth];
+                if(depth==0){
+                    if(fillEmpty) sink.emptyDir(last);
                 }else{
-                    if(tree.sep==null){
-                        pendingFiles.add(last);
-                    }//else{
-//						if(last.name.endsWith(tree.sep)){    //  dir
-//							if(fillEmpty) tree.emptyDirs.add(last);  //  empty dir
-//						}else tree.files.add(last); //  file
-//					}
-                    while(ancestors.size()>indent) ancestors.removeLast();
+                    if(sep==null){
+                        if(pending==pendingFiles.length) pendingFiles=Arrays.copyOf(pendingFiles,pending*2);
+                        pendingFiles[pending++]=last;
+                    }
+                    if(depth>indent) depth=indent;
+                }
+            }
+        }
+
+        protected void vacuum(){
+            for(int i=0;i<pending;++i){
+                int node=pendingFiles[i];
+                if(!sink.name(node).endsWith(sep)) sink.file(node);
+                else if(fillEmpty) sink.emptyDir(node);
+            }
+            pending=0;
+        }
+
+        private void unpend(int node){
+            for(int i=0;i<pending;++i){
+                if(pendingFiles[i]==node){
+                    System.arraycopy(pendingFiles,i+1,pendingFiles,i,pending-i-1);
+                    --pending;
+                    return;
                 }
             }
         }
 
-        protected void vacuum(Tree tree,boolean fillEmpty){
-            Node node;
-            while((node=pendingFiles.pollFirst())!=null){
-                if(!node.name.endsWith(tree.sep)) tree.files.add(node);
-                else if(fillEmpty) tree.emptyDirs.add(node);
+        /**
+         * Links one parsed line into the tree.
+         *
+         * @return false if there is no direct parent for the given indent
+         */
+        protected boolean append(String name,long size,int indent,boolean isRoot){
+            if(depth<indent) return false;
+            int node=sink.node(name,size);
+            link(node,indent);
+            if(sep!=null && !name.endsWith(sep))
+                sink.file(node);
+            push(node,isRoot);
+            return true;
+        }
+
+        protected boolean append(byte[] name,int offset,int length,long size,int indent,boolean isRoot){
+            if(depth<indent) return false;
+            int node=sink.node(name,offset,length,size);
+            link(node,indent);
+            if(sep!=null && !endsWith(name,offset,length,sepBytes))
+                sink.file(node);
+            push(node,isRoot);
+            return true;
+        }
+
+        private static boolean endsWith(byte[] name,int offset,int length,byte[] suffix){
+            if(length<suffix.length) return false;
+            for(int i=0,j=offset+length-suffix.length;i<suffix.length;++i,++j){
+                if(name[j]!=suffix[i]) return false;
             }
+            return true;
         }
 
-        protected void parse(Tree tree,String filename,RandomGenerator generator,boolean fillEmpty) throws IOException{
-            tree.generator=generator;
-            parse(tree,filename,fillEmpty);
+        private void link(int node,int indent){
+            //  push to lists
+            boolean firstChild=(depth==indent);
+            if(!firstChild){
+                rollback(indent);
+            }
+            if(indent>0){
+                int parent=ancestors[depth-1];
+                sink.link(node,parent);
+                if(firstChild){
+                    sink.nonEmptyDir(parent);
+                    if(sep==null) unpend(parent);
+                    if(sep==null && indent>1){
+                        String parentName=sink.name(parent);
+                        sep=parentName.substring(parentName.length()-1);
+                        sepBytes=sep.getBytes(StandardCharsets.UTF_8);
+                        sink.sep(sep);
+                        vacuum();
+                    }
+                }
+            }
         }
 
-        protected void parse(Tree tree,String filename,boolean fillEmpty) throws IOException{
+        private void push(int node,boolean isRoot){
+            if(depth==ancestors.length) ancestors=Arrays.copyOf(ancestors,depth*2);
+            ancestors[depth++]=node;
+            if(isRoot) sink.root(node);
+        }
+
+        protected void finish(){
+            rollback(0);
+            vacuum();
+            sink.done();
+        }
+
+        protected void parse(String filename) throws IOException{
             long count=1;
-            boolean isRoot = false;
             try(BufferedReader br=new BufferedReader(new InputStreamReader(new FileInputStream(filename),"UTF8"))){
                 for(String line;(line=br.readLine())!=null;++count){
                     //  skip blank line
@@ -339,55 +777,109 @@ public class StaticTree{
                     }
 
                     name=name.trim();
-//					System.out.println("path:"+name+":"+indent);
-                    Node node=(Node)tree.emptyNode();
+                    long size=0;
+                    boolean isRoot=false;
                     //  set name and possibly size
                     if(indent==0 && name.startsWith("directory")){  //  root
                         name=name.replaceFirst("directory\\s*","");
-                        isRoot = true;
-//						System.out.println("Root:"+name);
+                        isRoot=true;
                     }else if(indent>0){   //  non root, check [size,modify time] part
                         Matcher m=reg.matcher(name);
                         if(m.matches()){
-//							System.out.println("[0]"+m.group(0)+" [1]"+m.group(1)+" [2]"+m.group(2)+" [3]"+m.group(3)+" [4]"+m.group(4));
                             name=m.group(4);
                             if(m.group(1)!=null){
-                                node.size=Long.parseLong(m.group(2));
+                                size=Long.parseLong(m.group(2));
                                 //  don't care about modify time
                             }else{
-                                // pattern=false;
                                 continue;
                             }
                         }else throw new InvalidParameterException(String.format("%d: %s",count,line));
                     }
-                    node.name=name;
                     //  cannot find direct parent
-                    if(ancestors.size()<indent) throw new InvalidParameterException(String.format("%d: %s",count,line));
-                    //  push to lists
-                    boolean firstChild=(ancestors.size()==indent);
-                    if(!firstChild){
-                        rollback(indent,tree,fillEmpty);
-                    }
-                    if(indent>0){
-                        Node parent=ancestors.getLast();
-                        node.setParent(parent);
-                        if(firstChild){
-                            tree.nonEmptyDirs.add(parent);
-                            if(tree.sep==null) pendingFiles.remove(parent);
-                            if(tree.sep==null && indent>1){
-                                tree.sep=parent.name.substring(parent.name.length()-1);
-                                vacuum(tree,fillEmpty);
-                            }
+                    if(!append(name,size,indent,isRoot))
+                        throw new InvalidParameterException(String.format("%d: %s",count,line));
+                }
+                finish();
+            }
+        }
+
+        /**
+         * Same result as {@link #parse(String)}, with the scanning spread over a ForkJoinPool.
+         * The file is mapped in line-aligned chunks that are scanned in parallel by {@link DumpChunk};
+         * linking stays sequential and consumes the chunks in file order, so the node lists come out
+         * in exactly the same order.
+         *
+         * @param threads scanner threads, 1 or less to parse line by line
+         */
+        protected void parse(String filename,int threads) throws IOException{
+            if(threads<=1){
+                parse(filename);
+                return;
+            }
+            try(FileChannel channel=FileChannel.open(Paths.get(filename),StandardOpenOption.READ)){
+                long size=channel.size();
+                long chunk=Math.max(1<<22,Math.min(1<<28,size/(threads*8L)));
+                List<Long> bounds=new ArrayList<>();
+                bounds.add(0L);
+                for(long p=chunk;p<size;p=bounds.get(bounds.size()-1)+chunk){
+                    long next=nextLine(channel,p,size);
+                    if(next>=size) break;
+                    bounds.add(next);
+                }
+                bounds.add(size);
+
+                ForkJoinPool pool=new ForkJoinPool(threads);
+                try{
+                    int chunks=bounds.size()-1;
+                    List<ForkJoinTask<DumpChunk>> tasks=new ArrayList<>(chunks);
+                    int window=threads*2;
+                    long count=1;
+                    byte[] name=new byte[256];
+                    for(int i=0;i<chunks;++i){
+                        //  keep a bounded number of scanned chunks ahead of the linker
+                        while(tasks.size()<chunks && tasks.size()<=i+window){
+                            long from=bounds.get(tasks.size()), to=bounds.get(tasks.size()+1);
+                            tasks.add(pool.submit(new DumpChunk(channel.map(FileChannel.MapMode.READ_ONLY,from,to-from))));
                         }
+                        DumpChunk c=tasks.get(i).join();
+                        tasks.set(i,null);
+                        ByteBuffer buf=c.buf.duplicate();
+                        for(int r=0;r<c.count;++r){
+                            byte kind=c.kind[r];
+                            if(kind==DumpChunk.BAD_LINE)
+                                throw new InvalidParameterException(String.format("%d: %s",count+c.line[r],c.lineText(c.line[r])));
+                            if(kind==DumpChunk.BAD_NUMBER)
+                                throw new NumberFormatException("For input string: \""+c.text(c.start[r],c.length[r])+"\"");
+                            int len=c.length[r];
+                            if(len>name.length) name=new byte[Math.max(len,name.length*2)];
+                            ((Buffer)buf).position(c.start[r]);
+                            buf.get(name,0,len);
+                            //  cannot find direct parent
+                            if(!append(name,0,len,c.size[r],c.indent[r],kind==DumpChunk.ROOT))
+                                throw new InvalidParameterException(String.format("%d: %s",count+c.line[r],c.lineText(c.line[r])));
+                        }
+                        count+=c.lines;
                     }
-                    if(tree.sep!=null && !name.endsWith(tree.sep))
-                        tree.files.add(node);
-                    ancestors.add(node);
-                    if (isRoot) { tree.root = node; isRoot = false; }
+                    finish();
+                }finally{
+                    pool.shutdownNow();
                 }
-                rollback(0,tree,fillEmpty);
-                vacuum(tree,fillEmpty);
             }
         }
+
+        //  position right after the first \n at or after p
+        private static long nextLine(FileChannel channel,long p,long size) throws IOException{
+            ByteBuffer buf=ByteBuffer.allocate(4096);
+            while(p<size){
+                ((Buffer)buf).clear();
+                int n=channel.read(buf,p);
+                if(n<=0) break;
+                for(int i=0;i<n;++i){
+                    if(buf.get(i)=='\n') return p+i+1;
+                }
+                p+=n;
+            }
+            return size;
+        }
     }
 }
@@ -0,0 +1,373 @@
+package req;
+
+import util.Log;
+
+import java.io.*;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of DynamicTree mutations plus the binary checkpoint that compacts it.
+ * <p>
+ * Records are <code>[int length][int crc32][byte op][parent path][name]</code>, strings as int length plus
+ * UTF-8. Mutating threads only copy their record into a buffer; a flusher thread writes the whole batch
+ * and syncs it once. A thread that fills the buffer hands it to the flusher and carries on in the spare
+ * one, it only waits when the spare is still being written. A checkpoint and the journal share a
+ * generation number in their headers, and a journal is only replayed on top of the checkpoint of its
+ * own generation, so a crash between writing a checkpoint and resetting the journal replays nothing twice.
+ * A torn record at the end of the journal ends the replay and is cut off.
+ */
+class TreeJournal implements Closeable{
+    static Log log=Log.get();
+
+    static final byte CREATE_FILE=1, CREATE_DIR=2, DELETE=3, RMDIR=4;
+    static final int JOURNAL_MAGIC=0x52514A4C;     //  "RQJL"
+    static final int CHECKPOINT_MAGIC=0x52514350;  //  "RQCP"
+    static final int VERSION=1;
+    static final int HEADER=16;
+    static final int FLUSH_AT=1<<20;
+
+    final Path file;
+    final FileChannel channel;
+    final long checkpointOps;
+    long generation;
+    long ops=0;         //  since the last checkpoint
+    ByteBuffer active=ByteBuffer.allocate(FLUSH_AT+4096);
+    ByteBuffer spare=ByteBuffer.allocate(FLUSH_AT+4096);    //  null while the flusher has it
+    ByteBuffer full=null;   //  handed off by append, not yet taken by the flusher
+    final CRC32 crc=new CRC32();
+    final Object flushLock=new Object();
+    final ScheduledExecutorService flusher;
+    final Thread hook;
+
+    /**
+     * Opens a journal for appending after its last good record, or starts a new one if it doesn't
+     * belong to generation.
+     *
+     * @param syncMillis how often pending records are written and synced
+     * @param checkpointOps records after which {@link #due()} asks for a checkpoint
+     */
+    TreeJournal(String filename,long generation,long syncMillis,long checkpointOps) throws IOException{
+        this.file=Paths.get(filename);
+        this.generation=generation;
+        this.checkpointOps=checkpointOps;
+        this.channel=FileChannel.open(file,StandardOpenOption.CREATE,StandardOpenOption.READ,StandardOpenOption.WRITE);
+        if(readGeneration(channel)!=generation) reset(generation);
+        channel.position(channel.size());
+        flusher=Executors.newSingleThreadScheduledExecutor(r->{
+            Thread t=new Thread(r,"tree-journal");
+            t.setDaemon(true);
+            return t;
+        });
+        flusher.scheduleWithFixedDelay(this::flushQuietly,syncMillis,syncMillis,TimeUnit.MILLISECONDS);
+        //  System.exit() ends most runs, don't lose the last batch
+        hook=new Thread(this::flushQuietly);
+        Runtime.getRuntime().addShutdownHook(hook);
+    }
+
+    static String checkpointOf(String journal){
+        return journal+".checkpoint";
+    }
+
+    //  -1 if there is no valid header
+    private static long readGeneration(FileChannel channel) throws IOException{
+        if(channel.size()<HEADER) return -1;
+        ByteBuffer header=ByteBuffer.allocate(HEADER);
+        channel.read(header,0);
+        ((Buffer)header).flip();
+        if(header.getInt()!=JOURNAL_MAGIC || header.getInt()!=VERSION) return -1;
+        return header.getLong();
+    }
+
+    /**
+     * Empties the journal and stamps it with a new generation.
+     */
+    void reset(long generation) throws IOException{
+        ByteBuffer header=ByteBuffer.allocate(HEADER);
+        header.putInt(JOURNAL_MAGIC).putInt(VERSION).putLong(generation);
+        ((Buffer)header).flip();
+        synchronized(flushLock){
+            channel.truncate(0);
+            channel.write(header,0);
+            channel.force(true);
+            channel.position(HEADER);
+            this.generation=generation;
+        }
+        synchronized(this){
+            ops=0;
+        }
+    }
+
+    void append(byte op,String parentPath,String name){
+        byte[] p=parentPath.getBytes(StandardCharsets.UTF_8);
+        byte[] n=name.getBytes(StandardCharsets.UTF_8);
+        int length=1+4+p.length+4+n.length;
+        boolean handOff=false;
+        synchronized(this){
+            //  both buffers full, wait for the flusher to give one back
+            while(active.position()>=FLUSH_AT && spare==null){
+                try{
+                    wait();
+                }catch(InterruptedException e){
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            if(active.remaining()<8+length){
+                ByteBuffer bigger=ByteBuffer.allocate(Math.max(active.capacity()*2,active.position()+8+length));
+                ((Buffer)active).flip();
+                bigger.put(active);
+                active=bigger;
+            }
+            int start=active.position();
+            active.putInt(length).putInt(0).put(op).putInt(p.length).put(p).putInt(n.length).put(n);
+            crc.reset();
+            crc.update(active.array(),start+8,length);
+            active.putInt(start+4,(int)crc.getValue());
+            ++ops;
+            if(active.position()>=FLUSH_AT && spare!=null){
+                full=active;
+                active=spare;
+                spare=null;
+                handOff=true;
+            }
+        }
+        if(handOff){
+            try{
+                flusher.execute(this::flushQuietly);
+            }catch(RejectedExecutionException ignored){    //  closing, close() flushes
+            }
+        }
+    }
+
+    /**
+     * @return true once enough records piled up since the last checkpoint
+     */
+    synchronized boolean due(){
+        return checkpointOps>0 && ops>=checkpointOps;
+    }
+
+    /**
+     * Writes and syncs everything appended so far, the batch handed off by append first.
+     */
+    void flush() throws IOException{
+        synchronized(flushLock){
+            while(true){
+                ByteBuffer batch;
+                synchronized(this){
+                    if(full!=null){
+                        batch=full;
+                        full=null;
+                    }else if(active.position()>0){
+                        batch=active;
+                        active=spare;
+                        spare=null;
+                    }else return;
+                }
+                try{
+                    ((Buffer)batch).flip();
+                    while(batch.hasRemaining()) channel.write(batch);
+                    channel.force(false);
+                }finally{
+                    ((Buffer)batch).clear();
+                    synchronized(this){
+                        spare=batch;
+                        notifyAll();
+                    }
+                }
+            }
+        }
+    }
+
+    private void flushQuietly(){
+        try{
+            flush();
+        }catch(IOException e){
+            log.w(e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException{
+        flusher.shutdown();
+        try{
+            Runtime.getRuntime().removeShutdownHook(hook);
+        }catch(IllegalStateException ignored){  //  already shutting down
+        }
+        flush();
+        channel.close();
+    }
+
+    /**
+     * Applies the records of a journal of the given generation to tree and cuts off a torn tail.
+     *
+     * @return number of records applied
+     */
+    static long replay(DynamicTree tree,String filename,long generation) throws IOException{
+        Path path=Paths.get(filename);
+        if(!Files.exists(path)) return 0;
+        try(FileChannel channel=FileChannel.open(path,StandardOpenOption.READ,StandardOpenOption.WRITE)){
+            if(readGeneration(channel)!=generation) return 0;
+            DataInputStream in=new DataInputStream(new BufferedInputStream(
+                    Channels.newInputStream(channel.position(HEADER)),1<<16));
+            CRC32 crc=new CRC32();
+            long good=HEADER, count=0, size=channel.size();
+            byte[] record=new byte[256];
+            while(good+8<=size){
+                int length=in.readInt(), sum=in.readInt();
+                if(length<9 || good+8+length>size) break;
+                if(record.length<length) record=new byte[Math.max(length,record.length*2)];
+                in.readFully(record,0,length);
+                crc.reset();
+                crc.update(record,0,length);
+                if((int)crc.getValue()!=sum) break;
+                ByteBuffer r=ByteBuffer.wrap(record,0,length);
+                byte op=r.get();
+                String parent=utf(r), name=utf(r);
+                if(!tree.apply(op,parent,name))
+                    log.w("Journal record "+count+" does not match the tree: "+op+" "+parent+" "+name);
+                good+=8+length;
+                ++count;
+            }
+            if(good<size){
+                log.w("Cutting torn journal tail of "+(size-good)+" bytes");
+                channel.truncate(good);
+            }
+            return count;
+        }
+    }
+
+    private static String utf(ByteBuffer r){
+        int len=r.getInt();
+        String s=new String(r.array(),r.position(),len,StandardCharsets.UTF_8);
+        ((Buffer)r).position(r.position()+len);
+        return s;
+    }
+
+    /**
+     * Writes every node of tree with its parent link, followed by the three entry lists in order.
+     * The caller keeps the tree from changing meanwhile.
+     */
+    static void writeCheckpoint(DynamicTree tree,String filename,long generation) throws IOException{
+        Map<StaticTree.RandTreeNode,Integer> ids=new IdentityHashMap<>();
+        List<StaticTree.RandTreeNode> order=new ArrayList<>();
+        //  the parsed tree has entries that are in no list, they still count as children of their parent
+        Deque<DynamicTree.DynamicRandTreeNode> stack=new ArrayDeque<>();
+        if(tree.root!=null) stack.push((DynamicTree.DynamicRandTreeNode)tree.root);
+        while(!stack.isEmpty()){
+            DynamicTree.DynamicRandTreeNode n=stack.pop();
+            id(n,ids,order);
+            if(n.children!=null) for(DynamicTree.DynamicRandTreeNode c : n.children.values()) stack.push(c);
+        }
+        for(List<StaticTree.RandTreeNode> list : lists(tree)){
+            for(StaticTree.RandTreeNode n : list) id(n,ids,order);
+        }
+        Path target=Paths.get(filename).toAbsolutePath();
+        Path tmp=target.resolveSibling(target.getFileName()+".tmp");
+        try(FileOutputStream fos=new FileOutputStream(tmp.toFile());
+            DataOutputStream out=new DataOutputStream(new BufferedOutputStream(fos,1<<16))){
+            out.writeInt(CHECKPOINT_MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(generation);
+            writeUtf(out,tree.sep);
+            out.writeInt(order.size());
+            out.writeInt(tree.root==null ? -1 : ids.get(tree.root));
+            for(StaticTree.RandTreeNode n : order){
+                out.writeInt(n.parent==null ? -1 : ids.get(n.parent));
+                out.writeLong(n.size);
+                writeUtf(out,n.name);
+            }
+            for(List<StaticTree.RandTreeNode> list : lists(tree)){
+                out.writeInt(list.size());
+                for(StaticTree.RandTreeNode n : list) out.writeInt(ids.get(n));
+            }
+            out.flush();
+            fos.getFD().sync();
+        }
+        Files.move(tmp,target,StandardCopyOption.REPLACE_EXISTING,StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static List<List<StaticTree.RandTreeNode>> lists(DynamicTree tree){
+        return Arrays.asList(tree.files,tree.nonEmptyDirs,tree.emptyDirs);
+    }
+
+    //  ancestors get their ids first so a reader always meets the parent before the child
+    private static void id(StaticTree.RandTreeNode node,Map<StaticTree.RandTreeNode,Integer> ids,
+            List<StaticTree.RandTreeNode> order){
+        if(ids.containsKey(node)) return;
+        List<StaticTree.RandTreeNode> chain=new ArrayList<>();
+        for(StaticTree.RandTreeNode n=node;n!=null && !ids.containsKey(n);n=n.parent) chain.add(n);
+        for(int i=chain.size()-1;i>=0;--i){
+            ids.put(chain.get(i),order.size());
+            order.add(chain.get(i));
+        }
+    }
+
+    private static void writeUtf(DataOutputStream out,String s) throws IOException{
+        if(s==null){
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes=s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readUtf(DataInputStream in) throws IOException{
+        int len=in.readInt();
+        if(len<0) return null;
+        byte[] bytes=new byte[len];
+        in.readFully(bytes);
+        return new String(bytes,StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return the generation of the checkpoint, with tree filled from it
+     */
+    static long readCheckpoint(DynamicTree tree,String filename) throws IOException{
+        try(DataInputStream in=new DataInputStream(new BufferedInputStream(new FileInputStream(filename),1<<16))){
+            if(in.readInt()!=CHECKPOINT_MAGIC) throw new IOException("Not a tree checkpoint: "+filename);
+            int version=in.readInt();
+            if(version!=VERSION)
+                throw new IOException("Tree checkpoint "+filename+" has version "+version+", expected "+VERSION);
+            long generation=in.readLong();
+            tree.sep=readUtf(in);
+            int count=in.readInt(), root=in.readInt();
+            DynamicTree.DynamicRandTreeNode[] nodes=new DynamicTree.DynamicRandTreeNode[count];
+            for(int i=0;i<count;++i){
+                int parent=in.readInt();
+                DynamicTree.DynamicRandTreeNode n=tree.new DynamicRandTreeNode();
+                n.size=in.readLong();
+                n.name=readUtf(in);
+                if(parent>=0) n.setParent(nodes[parent]);
+                nodes[i]=n;
+            }
+            if(root>=0) tree.root=nodes[root];
+            for(List<StaticTree.RandTreeNode> list : lists(tree)){
+                for(int i=in.readInt();i>0;--i) list.add(nodes[in.readInt()]);
+            }
+            tree.sumTotals(Arrays.asList(nodes));
+            return generation;
+        }
+    }
+}
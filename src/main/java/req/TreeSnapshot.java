@@ -0,0 +1,204 @@
+package req;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Binary image of a CompactTree that is mapped and used in place, so loading costs a few mmap calls
+ * whatever the size of the tree.
+ * <p>
+ * Layout, little endian:
+ * <pre>
+ *  0  int   magic "RQTS"
+ *  4  int   version
+ *  8  int   nodes         12 int files      16 int dirs      20 int empty dirs
+ * 24  int   root id       28 int sep length, -1 if the tree has no separator
+ * 32  long  names length
+ * 40  24 bytes sep
+ * 64  long[nodes] sizes, then long[nodes] total sizes, int[nodes] parents, int[nodes] file counts,
+ *     int[nodes+1] name offsets, int[files], int[dirs], int[empty dirs], each section starting on 8 bytes,
+ *     then the name arena
+ * </pre>
+ * Sections are mapped read only; CompactTree copies the file index or size columns to the heap the first time
+ * it shuffles or updates them, so the snapshot file is never written through.
+ */
+public class TreeSnapshot{
+    public static final String SUFFIX=".snapshot";
+    static final int MAGIC=0x53545152;     //  "RQTS" read little endian
+    static final int VERSION=2;
+    static final int HEADER=64;
+    static final int MAX_SEP=24;
+
+    /**
+     * @return where the snapshot of a tree dump lives
+     */
+    public static String snapshotOf(String filename){
+        return filename+SUFFIX;
+    }
+
+    /**
+     * @return true if filename has a snapshot next to it that is not older than the dump
+     */
+    public static boolean isFresh(String filename){
+        File dump=new File(filename), snapshot=new File(snapshotOf(filename));
+        return snapshot.isFile() && (!dump.exists() || snapshot.lastModified()>=dump.lastModified());
+    }
+
+    static long align(long offset){
+        return (offset+7)&~7L;
+    }
+
+    public static void save(CompactTree tree,String filename) throws IOException{
+        if(tree.sepBytes!=null && tree.sepBytes.length>MAX_SEP)
+            throw new IllegalStateException("Separator longer than "+MAX_SEP+" bytes: "+tree.sep);
+        Path target=Paths.get(filename).toAbsolutePath();
+        Path tmp=target.resolveSibling(target.getFileName()+".tmp");
+        int n=tree.nodeCount;
+        try(FileChannel channel=FileChannel.open(tmp,StandardOpenOption.CREATE,StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)){
+            ByteBuffer buf=ByteBuffer.allocateDirect(1<<16).order(ByteOrder.LITTLE_ENDIAN);
+            buf.putInt(MAGIC).putInt(VERSION).putInt(n).putInt(tree.fileCount).putInt(tree.dirCount)
+                    .putInt(tree.emptyCount).putInt(tree.rootId)
+                    .putInt(tree.sepBytes==null ? -1 : tree.sepBytes.length)
+                    .putLong(tree.names.limit());
+            if(tree.sepBytes!=null) buf.put(tree.sepBytes);
+            ((Buffer)buf).position(HEADER);
+            long offset=HEADER;
+            for(int i=0;i<n;++i) offset=putLong(channel,buf,offset,tree.sizes.get(i));
+            for(int i=0;i<n;++i) offset=putLong(channel,buf,offset,tree.totalSizes.get(i));
+            offset=pad(channel,buf,offset);
+            offset=putInts(channel,buf,offset,tree.parents,n);
+            offset=putInts(channel,buf,offset,tree.fileCounts,n);
+            offset=putInts(channel,buf,offset,tree.nameOffsets,n+1);
+            offset=putInts(channel,buf,offset,tree.fileIndex,tree.fileCount);
+            offset=putInts(channel,buf,offset,tree.dirIndex,tree.dirCount);
+            offset=putInts(channel,buf,offset,tree.emptyIndex,tree.emptyCount);
+            for(int i=0,len=tree.names.limit();i<len;++i){
+                if(!buf.hasRemaining()) flush(channel,buf);
+                buf.put(tree.names.get(i));
+            }
+            flush(channel,buf);
+            channel.force(true);
+        }
+        Files.move(tmp,target,StandardCopyOption.REPLACE_EXISTING,StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void flush(FileChannel channel,ByteBuffer buf) throws IOException{
+        ((Buffer)buf).flip();
+        while(buf.hasRemaining()) channel.write(buf);
+        ((Buffer)buf).clear();
+    }
+
+    private static long putLong(FileChannel channel,ByteBuffer buf,long offset,long value) throws IOException{
+        if(buf.remaining()<8) flush(channel,buf);
+        buf.putLong(value);
+        return offset+8;
+    }
+
+    private static long putInts(FileChannel channel,ByteBuffer buf,long offset,IntBuffer values,int count) throws IOException{
+        for(int i=0;i<count;++i){
+            if(buf.remaining()<4) flush(channel,buf);
+            buf.putInt(values.get(i));
+        }
+        return pad(channel,buf,offset+4L*count);
+    }
+
+    private static long pad(FileChannel channel,ByteBuffer buf,long offset) throws IOException{
+        long aligned=align(offset);
+        for(long i=offset;i<aligned;++i){
+            if(!buf.hasRemaining()) flush(channel,buf);
+            buf.put((byte)0);
+        }
+        return aligned;
+    }
+
+    /**
+     * Maps a snapshot written by {@link #save}.
+     *
+     * @throws IOException if the file is not a snapshot, is corrupt or was written by another format version
+     */
+    public static CompactTree load(String filename) throws IOException{
+        try(FileChannel channel=FileChannel.open(Paths.get(filename),StandardOpenOption.READ)){
+            return load(filename,channel);
+        }catch(RuntimeException e){
+            //  whatever slipped past the header checks, so callers can fall back to the dump
+            throw new IOException("Corrupt tree snapshot "+filename+": "+e,e);
+        }
+    }
+
+    private static CompactTree load(String filename,FileChannel channel) throws IOException{
+        long fileSize=channel.size();
+        if(fileSize<HEADER) throw new IOException("Not a tree snapshot: "+filename);
+        ByteBuffer header=ByteBuffer.allocate(HEADER).order(ByteOrder.LITTLE_ENDIAN);
+        while(header.hasRemaining() && channel.read(header)>=0);
+        ((Buffer)header).flip();
+        if(header.getInt()!=MAGIC) throw new IOException("Not a tree snapshot: "+filename);
+        int version=header.getInt();
+        if(version!=VERSION)
+            throw new IOException("Tree snapshot "+filename+" has version "+version+", expected "+VERSION);
+
+        CompactTree tree=new CompactTree();
+        int n=tree.nodeCount=header.getInt();
+        tree.fileCount=header.getInt();
+        tree.dirCount=header.getInt();
+        tree.emptyCount=header.getInt();
+        tree.rootId=header.getInt();
+        int sepLength=header.getInt();
+        long namesLength=header.getLong();
+        if(n<0 || tree.fileCount<0 || tree.dirCount<0 || tree.emptyCount<0 || namesLength<0
+                || tree.rootId<-1 || tree.rootId>=n)
+            throw new IOException("Corrupt tree snapshot "+filename+": negative count or root out of range");
+        if(sepLength<-1 || sepLength>Math.min(MAX_SEP,header.remaining()))
+            throw new IOException("Corrupt tree snapshot "+filename+": separator of "+sepLength+" bytes");
+        if(sepLength>=0){
+            tree.sepBytes=new byte[sepLength];
+            header.get(tree.sepBytes);
+            tree.sep=new String(tree.sepBytes,StandardCharsets.UTF_8);
+        }
+
+        //  the sections must end exactly where the name arena fills the rest of the file
+        long end=HEADER;
+        for(long length : new long[]{8L*n,8L*n,4L*n,4L*n,4L*(n+1),
+                4L*tree.fileCount,4L*tree.dirCount,4L*tree.emptyCount}) end=align(end+length);
+        if(end+namesLength!=fileSize)
+            throw new IOException("Truncated tree snapshot: "+filename);
+
+        long offset=HEADER;
+        tree.sizes=map(channel,offset,8L*n).asLongBuffer();
+        offset=align(offset+8L*n);
+        tree.totalSizes=map(channel,offset,8L*n).asLongBuffer();
+        offset=align(offset+8L*n);
+        tree.parents=map(channel,offset,4L*n).asIntBuffer();
+        offset=align(offset+4L*n);
+        tree.fileCounts=map(channel,offset,4L*n).asIntBuffer();
+        offset=align(offset+4L*n);
+        tree.nameOffsets=map(channel,offset,4L*(n+1)).asIntBuffer();
+        offset=align(offset+4L*(n+1));
+        tree.fileIndex=map(channel,offset,4L*tree.fileCount).asIntBuffer();
+        offset=align(offset+4L*tree.fileCount);
+        tree.dirIndex=map(channel,offset,4L*tree.dirCount).asIntBuffer();
+        offset=align(offset+4L*tree.dirCount);
+        tree.emptyIndex=map(channel,offset,4L*tree.emptyCount).asIntBuffer();
+        offset=align(offset+4L*tree.emptyCount);
+        tree.names=map(channel,offset,namesLength);
+        return tree;
+    }
+
+    private static ByteBuffer map(FileChannel channel,long offset,long length) throws IOException{
+        if(length>Integer.MAX_VALUE)
+            throw new IOException("Snapshot section over 2GB at offset "+offset);
+        return channel.map(FileChannel.MapMode.READ_ONLY,offset,length).order(ByteOrder.LITTLE_ENDIAN);
+    }
+}
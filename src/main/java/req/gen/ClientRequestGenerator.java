@@ -1,11 +1,14 @@
 package req.gen;
 
 import commonmodels.Request;
+import req.PathCache;
 import req.StaticTree;
 import util.Config;
 
 import java.io.IOException;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 public class ClientRequestGenerator extends RequestGenerator {
@@ -14,7 +17,7 @@ public class ClientRequestGenerator extends RequestGenerator {
 
     public ClientRequestGenerator(String filename) throws IOException {
         super();
-        this.tree = StaticTree.getStaticTree(filename);
+        this.tree = StaticTree.open(filename);
         this.generator.setUpper(tree.getFileSize() - 1);
     }
 
@@ -26,11 +29,14 @@ public class ClientRequestGenerator extends RequestGenerator {
 
     @Override
     public Request next(int threadId) {
-        StaticTree.RandTreeNode file = tree.getFiles().get(generator.nextInt());
-        Request request = headerGenerator.next();
-        return request
-                .withFilename(file.toString())
-                .withSize(file.getSize());
+        Request request = bySize ? tree.fileInfoBySize(generator) : tree.fileInfo(generator.nextInt());
+        request.setCommand(headerGenerator.next().getCommand());
+        return request;
+    }
+
+    @Override
+    public List<PathCache> getPathCaches() {
+        return tree.getPathCache() == null ? Collections.emptyList() : Collections.singletonList(tree.getPathCache());
     }
 
     @Override
@@ -1,12 +1,18 @@
 package req.gen;
 
 import commonmodels.Request;
+import req.PathCache;
 import req.rand.ExpGenerator;
+import req.rand.PerThreadGenerator;
 import req.rand.RandomGenerator;
+import req.rand.RandomStreams;
+import req.rand.ScrambledZipfGenerator;
 import req.rand.UniformGenerator;
 import req.rand.ZipfGenerator;
 import util.Config;
 
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 
 public abstract class RequestGenerator {
@@ -15,11 +21,27 @@ public abstract class RequestGenerator {
 
     protected RequestTypeGenerator headerGenerator;
 
+    /**
+     * Files are picked with probability proportional to their size instead of by index,
+     * generator stays uniform for everything else.
+     */
+    protected final boolean bySize;
+
+    /**
+     * Files are picked by zipf rank from the most recently created, generator is zipf.
+     */
+    protected final boolean latest;
+
     public RequestGenerator() {
         this(Integer.MAX_VALUE);
     }
 
     public RequestGenerator(int requestUpper) {
+        Long seed = Config.getInstance().getSeed();
+        if (seed != null)
+            RandomStreams.seed(seed);
+        this.bySize = Config.getInstance().getRequestDistribution().equals(Config.REQUEST_DISTRIBUTION_SIZE);
+        this.latest = Config.getInstance().getRequestDistribution().equals(Config.REQUEST_DISTRIBUTION_LATEST);
         this.generator = loadGenerator(requestUpper);
         Map<Request, Double> requestTypes = loadRequestRatio();
         this.headerGenerator = new RequestTypeGenerator(
@@ -31,15 +53,27 @@ public abstract class RequestGenerator {
 
     public abstract Map<Request, Double> loadRequestRatio();
 
+    /**
+     * @return the path caches of the trees requests are drawn from, for reporting their statistics
+     */
+    public List<PathCache> getPathCaches() {
+        return Collections.emptyList();
+    }
+
+    /**
+     * Zipf generators are made per request thread, the uniform one keeps no state and is shared.
+     */
     private RandomGenerator loadGenerator(int upper) {
         UniformGenerator generator = new UniformGenerator(upper);
+        String distribution = Config.getInstance().getRequestDistribution();
 
-        if (Config.getInstance().getRequestDistribution().equals(Config.REQUEST_DISTRIBUTION_ZIPF))
-            return new ZipfGenerator(
-                    Config.getInstance().getZipfAlpha(),
-                    upper,
-                    generator);
-        else
+        if (distribution.equals(Config.REQUEST_DISTRIBUTION_ZIPF) || distribution.equals(Config.REQUEST_DISTRIBUTION_LATEST)) {
+            double alpha = Config.getInstance().getZipfAlpha();
+            return new PerThreadGenerator(upper, () -> new ZipfGenerator(alpha, upper, generator, false));
+        } else if (distribution.equals(Config.REQUEST_DISTRIBUTION_SCRAMBLED_ZIPF)) {
+            double alpha = Config.getInstance().getZipfAlpha();
+            return new PerThreadGenerator(upper, () -> new ScrambledZipfGenerator(alpha, upper, generator, false));
+        } else
             return generator;
     }
 }
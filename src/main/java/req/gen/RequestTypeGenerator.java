@@ -1,52 +1,52 @@
 package req.gen;
 
 import commonmodels.Request;
+import req.rand.DiscreteDistribution;
 import req.rand.RandomGenerator;
 
 import java.util.*;
 
 public class RequestTypeGenerator {
-    private Request[] types;
-    private int len;
     private RandomGenerator gen;
-    private double[] steps;
+    private DiscreteDistribution<Request> types;
 
     static class ValueComparator implements Comparator<Map.Entry<Request, Double>> {
         @Override
         public int compare(Map.Entry<Request, Double> o1, Map.Entry<Request, Double> o2) {
             double neg = o2.getValue() - o1.getValue();
-            return neg > 0 ? 1 : neg < 0 ? -1 : 0;
+            //  equal ratios keep a fixed order, so seeded runs draw the same types
+            return neg > 0 ? 1 : neg < 0 ? -1 : o1.getKey().getCommand().compareTo(o2.getKey().getCommand());
         }
     }
 
     public RequestTypeGenerator(Map<Request, Double> ratio, RandomGenerator uniform) {
         gen = uniform;
-        len = ratio.size();
-        types = new Request[len];
-        steps = new double[len];
         List<Map.Entry<Request, Double>> sorted = new ArrayList<>(ratio.entrySet());
         sorted.sort(new ValueComparator());
-        double sum = 0.0;
-        int i = 0;
+        List<Request> keys = new ArrayList<>(sorted.size());
+        double[] weights = new double[sorted.size()];
         for (Map.Entry<Request, Double> entry : sorted) {
-            types[i] = entry.getKey();
-            steps[i++] = entry.getValue();
-//			System.out.println(entry.getKey()+":"+entry.getValue());
-            sum += entry.getValue();
-        }
-        if (len > 0) {
-            steps[0] = steps[0] / sum;
-            for (i = 1; i < len; ++i) {
-                steps[i] = steps[i] / sum + steps[i - 1];
-            }
+            weights[keys.size()] = entry.getValue();
+            keys.add(entry.getKey());
         }
+        types = new DiscreteDistribution<>(keys, weights);
     }
 
     public Request next() {
-        double rd = gen.nextDouble();
-        for (int i = 0; i < len; ++i) {
-            if (rd < steps[i]) return types[i];
+        return types.next(gen);
+    }
+
+    /**
+     * Changes the share of one command while requests are being generated.
+     * The ratio is relative to the others, like the configured ones.
+     */
+    public void setRatio(Request.Command command, double ratio) {
+        for (int i = 0; i < types.size(); ++i) {
+            if (types.get(i).getCommand() == command) {
+                types.setWeight(i, ratio);
+                return;
+            }
         }
-        return null;
+        throw new IllegalArgumentException("No " + command + " requests in this mix");
     }
 }
@@ -5,38 +5,46 @@ import commonmodels.Request;
 import java.io.BufferedReader;
 import java.io.FileReader;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
-import java.util.Queue;
-import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * Replays a request file, thread i sending the i-th run of numOfRequest lines in order.
+ * <p>
+ * The lines sit in one array and each thread keeps a cursor into its run, so the generator costs one
+ * reference per line and one int per thread however many threads there are.
+ */
 public class SequentialRequestGenerator extends RequestGenerator{
 
-    private final Map<Integer, Queue<String>> dataPool;
+    private final String[] lines;
 
-    private final int numOfRequest;
+    private final int[] cursors;    //  next line of each thread within its run, only written by that thread
+
+    private final int runLength;
 
     public SequentialRequestGenerator(int numOfThreads, int numOfRequest, String fileName) throws IOException {
         super(0);
 
-        this.numOfRequest = numOfRequest;
-        dataPool = new ConcurrentHashMap<>();
-        for (int i = 0; i < numOfThreads; i++)
-            dataPool.put(i, new LinkedList<>());
-
-        FileReader fr = new FileReader(fileName);
-        BufferedReader reader = new BufferedReader(fr);
-        loadFile(reader);
+        //  with an unlimited number of requests every thread replays one line, as before
+        this.runLength = numOfRequest > 0 ? numOfRequest : 1;
+        this.cursors = new int[numOfThreads];
+        try (BufferedReader reader = new BufferedReader(new FileReader(fileName))) {
+            this.lines = loadFile(reader, (long) numOfThreads * runLength);
+        }
     }
 
     @Override
     public Request next(int threadId) {
-        Queue<String> queue = dataPool.get(threadId);
-        if (queue != null && !queue.isEmpty()) {
-            return Request.translate(queue.poll());
-        }
-        else return null;
+        if (threadId < 0 || threadId >= cursors.length)
+            return null;
+        int cursor = cursors[threadId];
+        long line = (long) threadId * runLength + cursor;
+        if (cursor >= runLength || line >= lines.length)
+            return null;
+        cursors[threadId] = cursor + 1;
+        return Request.translate(lines[(int) line]);
     }
 
     @Override
@@ -44,22 +52,14 @@ public class SequentialRequestGenerator extends RequestGenerator{
         return new HashMap<>();
     }
 
-    private void loadFile(BufferedReader reader) throws IOException {
+    private static String[] loadFile(BufferedReader reader, long max) throws IOException {
+        List<String> lines = new ArrayList<>();
         String line;
-        int i = 0;
-        int curr = 0;
-        Queue<String> queue = dataPool.get(curr);
-        while ((line = reader.readLine()) != null) {
+        while (lines.size() < max && (line = reader.readLine()) != null) {
             line = line.trim();
-
-            if (!line.isEmpty()) {
-                queue.add(line);
-                if (++i % numOfRequest == 0) {
-                    queue = dataPool.get(++curr);
-                    if (queue == null) break;
-                }
-            }
+            if (!line.isEmpty())
+                lines.add(line);
         }
-        reader.close();
+        return lines.toArray(new String[0]);
     }
 }
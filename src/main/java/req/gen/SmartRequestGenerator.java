@@ -2,18 +2,15 @@ package req.gen;
 
 import commonmodels.Request;
 import req.DynamicTree;
+import req.PathCache;
 import req.StaticTree;
-import util.AutoLock;
 import util.Config;
 
-import java.io.BufferedWriter;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.io.PrintWriter;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 public class SmartRequestGenerator extends RequestGenerator{
 
@@ -21,23 +18,33 @@ public class SmartRequestGenerator extends RequestGenerator{
 
     private final DynamicTree dTree;
 
-    private ReadWriteLock lock;
-
     private float dynamicInsertRatio = 1;
 
     public SmartRequestGenerator(String staticFile) throws IOException {
         super();
-        this.sTree = StaticTree.getStaticTree(staticFile);
+        this.sTree = StaticTree.open(staticFile);
         this.generator.setUpper(sTree.getFileSize() - 1);
         this.dTree = null;
     }
 
     public SmartRequestGenerator(String staticFile, String dynamicFile) throws IOException {
         super();
-        this.sTree = StaticTree.getStaticTree(staticFile);
+        this.sTree = StaticTree.open(staticFile);
         this.generator.setUpper(sTree.getFileSize() - 1);
-        this.dTree = dynamicFile == null ? null : DynamicTree.getDynamicTree(dynamicFile);
-        this.lock = dynamicFile == null ? null : new ReentrantReadWriteLock();
+        this.dTree = dynamicFile == null ? null : loadDynamicTree(dynamicFile);
+        if (dTree != null)
+            dTree.setPathCache(PathCache.fromConfig());
+    }
+
+    private static DynamicTree loadDynamicTree(String dynamicFile) throws IOException {
+        Config config = Config.getInstance();
+        if (config.getJournalFile().isEmpty())
+            return DynamicTree.getDynamicTree(dynamicFile, config.getParseThreads());
+        return DynamicTree.recover(dynamicFile,
+                config.getJournalFile(),
+                config.getParseThreads(),
+                config.getJournalSyncInterval(),
+                config.getJournalCheckpointOps());
     }
 
     public SmartRequestGenerator(String staticFile, String dynamicFile, String rankFile) throws IOException {
@@ -57,64 +64,83 @@ public class SmartRequestGenerator extends RequestGenerator{
             if (type == Request.Command.LS)
                 request = sTree.ls(generator.nextInt(sTreeDirs - 1));
             else if (type == Request.Command.READ || type == Request.Command.WRITE) {
-                request = sTree.fileInfo(generator.nextInt(sTreeFiles - 1));
-                request.setCommand(type);
+                request = bySize ? sTree.fileInfoBySize(generator) : sTree.fileInfo(generator.nextInt(sTreeFiles - 1));
+                if (request != null)
+                    request.setCommand(type);
             }
         } else {
-            try (AutoLock auto = AutoLock.lock(lock.readLock())) {
-                if (type == Request.Command.CREATE_DIR || type == Request.Command.CREATE_FILE
-                        || type == Request.Command.DELETE || type == Request.Command.RMDIR) {
-                    lock.readLock().unlock();
-                    lock.writeLock().lock();
-                    if (type == Request.Command.CREATE_DIR) {
-                        request = dTree.createDir(generator.nextInt(dTree.getAllDirSize() - 1));
-                    } else if (type == Request.Command.CREATE_FILE) {
-                        request = dTree.createFile(generator.nextInt(dTree.getAllDirSize() - 1));
-                    } else if (type == Request.Command.DELETE) {
-                        if (dTree.getFileSize() == 0) {
-                            lock.writeLock().unlock();
-                            return request;
-                        }
-                        request = dTree.delete(generator.nextInt(dTree.getFileSize() - 1));
-                    } else if (type == Request.Command.RMDIR) {
-                        if (dTree.getEmptyDirSize() == 0) {
-                            lock.writeLock().unlock();
-                            return request;
-                        }
-                        request = dTree.rmdir(generator.nextInt(dTree.getEmptyDirSize() - 1));
-                    }
-                    lock.readLock().lock();
-                    lock.writeLock().unlock();
-                } else {
-                    if (type == Request.Command.LS) {
-                        int n = generator.nextInt(sTreeDirs + dTree.getNonEmptyDirSize() - 1);
-                        if (n < sTreeHeadDirs)
-                            request = sTree.ls(n);
-                        else {
-                            n -= sTreeHeadDirs;
-                            if (n < dTree.getNonEmptyDirSize())
-                                request = dTree.ls(n);
-                            else {
-                                n = n - dTree.getNonEmptyDirSize() + sTreeHeadDirs;
-                                request = sTree.ls(n);
-                            }
-                        }
-                    } else {
-                        int n = generator.nextInt(sTreeFiles + dTree.getFileSize() - 1);
-                        StaticTree t = sTree;
-                        if (n >= sTreeHeadFiles) {
-                            n -= sTreeHeadFiles;
-                            if (n < dTree.getFileSize())
-                                t = dTree;
-                            else
-                                n = n - dTree.getFileSize() + sTreeHeadFiles;
-                        }
-                        if (type == Request.Command.READ || type == Request.Command.WRITE) {
-                            request = t.fileInfo(n);
-                            request.setCommand(type);
-                        }
+            //  DynamicTree synchronizes its own mutations, a draw that loses a race yields null and is redrawn
+            if (type == Request.Command.CREATE_DIR) {
+                request = dTree.createDir(generator.nextInt(dTree.getAllDirSize() - 1));
+            } else if (type == Request.Command.CREATE_FILE) {
+                request = dTree.createFile(generator.nextInt(dTree.getAllDirSize() - 1));
+            } else if (type == Request.Command.DELETE) {
+                if (dTree.getFileSize() == 0)
+                    return request;
+                request = dTree.delete(generator.nextInt(dTree.getFileSize() - 1));
+            } else if (type == Request.Command.RMDIR) {
+                if (dTree.getEmptyDirSize() == 0)
+                    return request;
+                request = dTree.rmdir(generator.nextInt(dTree.getEmptyDirSize() - 1));
+            } else if (type == Request.Command.LS) {
+                int n = generator.nextInt(sTreeDirs + dTree.getNonEmptyDirSize() - 1);
+                if (n < sTreeHeadDirs)
+                    request = sTree.ls(n);
+                else {
+                    n -= sTreeHeadDirs;
+                    int dTreeDirs = dTree.getNonEmptyDirSize();
+                    if (n < dTreeDirs)
+                        request = dTree.ls(n);
+                    else {
+                        n = n - dTreeDirs + sTreeHeadDirs;
+                        request = sTree.ls(n);
                     }
                 }
+            } else if (latest) {
+                //  rank 1 is the newest file: the dynamic tree adds files at the front of its list and fills
+                //  the hole of a deleted one from the back, so the front stays in creation order
+                int dTreeFiles = dTree.getFileSize();
+                int n = generator.nextInt(dTreeFiles + sTreeFiles) - 1;
+                StaticTree t = dTree;
+                if (n >= dTreeFiles) {
+                    n -= dTreeFiles;
+                    t = sTree;
+                }
+                if (type == Request.Command.READ || type == Request.Command.WRITE) {
+                    request = t.fileInfo(n);
+                    if (request != null)
+                        request.setCommand(type);
+                }
+            } else if (bySize) {
+                //  pick the tree by its share of the bytes, or of the files when all are empty, then a file within it
+                long sBytes = sTree.getWeightedFileSize();
+                long dBytes = dTree.getWeightedFileSize();
+                if (sBytes + dBytes == 0) {
+                    sBytes = sTreeFiles;
+                    dBytes = dTree.getFileSize();
+                }
+                StaticTree t = generator.nextDouble() * (sBytes + dBytes) < sBytes ? sTree : dTree;
+                if (type == Request.Command.READ || type == Request.Command.WRITE) {
+                    request = t.fileInfoBySize(generator);
+                    if (request != null)
+                        request.setCommand(type);
+                }
+            } else {
+                int n = generator.nextInt(sTreeFiles + dTree.getFileSize() - 1);
+                StaticTree t = sTree;
+                if (n >= sTreeHeadFiles) {
+                    n -= sTreeHeadFiles;
+                    int dTreeFiles = dTree.getFileSize();
+                    if (n < dTreeFiles)
+                        t = dTree;
+                    else
+                        n = n - dTreeFiles + sTreeHeadFiles;
+                }
+                if (type == Request.Command.READ || type == Request.Command.WRITE) {
+                    request = t.fileInfo(n);
+                    if (request != null)
+                        request.setCommand(type);
+                }
             }
         }
 
@@ -131,6 +157,16 @@ public class SmartRequestGenerator extends RequestGenerator{
         return request;
     }
 
+    @Override
+    public List<PathCache> getPathCaches() {
+        List<PathCache> caches = new ArrayList<>();
+        if (sTree.getPathCache() != null)
+            caches.add(sTree.getPathCache());
+        if (dTree != null && dTree.getPathCache() != null)
+            caches.add(dTree.getPathCache());
+        return caches;
+    }
+
     @Override
     public Map<Request, Double> loadRequestRatio() {
         double[] ratio = Config.getInstance().getRequestRatio();
@@ -152,12 +188,7 @@ public class SmartRequestGenerator extends RequestGenerator{
         }
 
         try {
-            FileWriter w = new FileWriter(filename);
-            BufferedWriter bw = new BufferedWriter(w);
-            PrintWriter wr = new PrintWriter(bw, true);
-            wr.print(dTree.getRoot() == null ? "null" : dTree.getRoot().toTreeString(false));
-            wr.close();
-            bw.close();
+            dTree.saveTree(filename);
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -0,0 +1,103 @@
+package req.rand;
+
+import java.util.function.IntToLongFunction;
+
+/**
+ * Draws an index in [0,n) with probability proportional to its weight in O(1), by Vose's alias method.
+ * <p>
+ * Each index keeps the probability of being kept, in units of 2^-31, and the index taken otherwise,
+ * so the table costs 8 bytes per index. Weights are fixed at construction.
+ */
+public class AliasTable{
+	private static final double ONE=1L<<31;
+
+	final int[] keep;
+	final int[] alias;
+	final long total;
+
+	/**
+	 * @param weight non negative weight of each index; if all are zero every index is equally likely
+	 */
+	public AliasTable(int n,IntToLongFunction weight){
+		keep=new int[n];
+		alias=new int[n];
+		double[] p=new double[n];
+		long sum=0;
+		for(int i=0;i<n;++i){
+			long w=weight.applyAsLong(i);
+			if(w<0) throw new IllegalArgumentException("Negative weight "+w+" at "+i);
+			p[i]=w;
+			sum+=w;
+		}
+		total=sum;
+		build(p,sum);
+	}
+
+	/**
+	 * @param weights non negative weight of each index, total() is their sum rounded down
+	 */
+	public AliasTable(double[] weights){
+		int n=weights.length;
+		keep=new int[n];
+		alias=new int[n];
+		double[] p=new double[n];
+		double sum=0;
+		for(int i=0;i<n;++i){
+			double w=weights[i];
+			if(!(w>=0) || Double.isInfinite(w)) throw new IllegalArgumentException("Bad weight "+w+" at "+i);
+			p[i]=w;
+			sum+=w;
+		}
+		total=(long)sum;
+		build(p,sum);
+	}
+
+	private void build(double[] p,double sum){
+		int n=p.length;
+		for(int i=0;i<n;++i) p[i]=sum==0 ? 1 : p[i]*n/sum;
+		//  small indexes stack up from the front of work, large ones down from the back
+		int[] work=new int[n];
+		int small=0, large=n;
+		for(int i=0;i<n;++i){
+			if(p[i]<1) work[small++]=i;
+			else work[--large]=i;
+		}
+		while(small>0 && large<n){
+			int s=work[--small], l=work[large++];
+			keep[s]=(int)Math.min(Integer.MAX_VALUE,Math.round(p[s]*ONE));
+			alias[s]=l;
+			p[l]=(p[l]+p[s])-1;
+			if(p[l]<1) work[small++]=l;
+			else work[--large]=l;
+		}
+		//  what is left is 1 up to rounding
+		while(small>0) fill(work[--small]);
+		while(large<n) fill(work[large++]);
+	}
+
+	private void fill(int i){
+		keep[i]=Integer.MAX_VALUE;
+		alias[i]=i;
+	}
+
+	public int size(){
+		return keep.length;
+	}
+
+	/**
+	 * @return sum of the weights
+	 */
+	public long total(){
+		return total;
+	}
+
+	/**
+	 * @param uniform a uniform generator
+	 * @return an index, -1 if the table is empty
+	 */
+	public int next(RandomGenerator uniform){
+		if(keep.length==0) return -1;
+		int i=uniform.nextInt(keep.length);
+		return (int)(uniform.nextDouble()*ONE)<keep[i] ? i : alias[i];
+	}
+}
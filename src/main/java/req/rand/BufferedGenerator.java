@@ -0,0 +1,75 @@
+package req.rand;
+
+/**
+ * Draws uniform doubles from a source a block at a time and hands them out one by one, so a caller
+ * making many small draws pays for one call into the source per block.
+ * <p>
+ * Not thread safe: give each thread its own instance. The first block is drawn on first use, so an
+ * instance built on one thread and used on another draws from the user's stream.
+ */
+public class BufferedGenerator implements RandomGenerator{
+	public static final int DEFAULT_BLOCK=256;
+
+	private final RandomGenerator source;
+	private final double[] block;
+	private int next;
+	private int upper;
+
+	/**
+	 * @param source a uniform generator
+	 */
+	public BufferedGenerator(RandomGenerator source,int upper,int blockSize){
+		this.source=source;
+		this.upper=upper;
+		this.block=new double[blockSize];
+		this.next=blockSize;
+	}
+
+	public BufferedGenerator(RandomGenerator source){
+		this(source,Integer.MAX_VALUE,DEFAULT_BLOCK);
+	}
+
+	@Override
+	public double nextDouble(){
+		if(next==block.length){
+			source.nextDoubles(block);
+			next=0;
+		}
+		return block[next++];
+	}
+
+	@Override
+	public int nextInt(int upper){
+		return upper<1 ? 0 : (int)(nextDouble()*upper);
+	}
+
+	@Override
+	public int nextInt(){
+		return nextInt(upper);
+	}
+
+	@Override
+	public void nextInts(int[] out,int upper){
+		for(int i=0;i<out.length;++i) out[i]=nextInt(upper);
+	}
+
+	@Override
+	public void nextDoubles(double[] out){
+		int i=0;
+		while(i<out.length){
+			if(next==block.length){
+				source.nextDoubles(block);
+				next=0;
+			}
+			int n=Math.min(out.length-i,block.length-next);
+			System.arraycopy(block,next,out,i,n);
+			next+=n;
+			i+=n;
+		}
+	}
+
+	@Override
+	public void setUpper(int upper){
+		this.upper=upper;
+	}
+}
@@ -0,0 +1,104 @@
+package req.rand;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * FenwickTree over atomic arrays: one writer at a time changes weights in O(log n) while any number of
+ * threads draw indexes without locking.
+ * <p>
+ * A draw that races a write sees some of the tree entries before the write and some after, so it may land
+ * on a neighbour of the index it would have picked, or past the last index when the total shrank meanwhile.
+ * Callers check the index they get.
+ */
+public class ConcurrentFenwickTree{
+	final AtomicLongArray weights;
+	final AtomicLongArray tree;    //  1 based, tree[i] sums the weights (i - lowbit(i), i]
+	final AtomicLong total=new AtomicLong();
+
+	public ConcurrentFenwickTree(int capacity){
+		weights=new AtomicLongArray(capacity);
+		tree=new AtomicLongArray(capacity+1);
+	}
+
+	/**
+	 * Builds the tree over weights[0,capacity) in O(capacity), weights past the end count as zero.
+	 */
+	public ConcurrentFenwickTree(long[] weights,int capacity){
+		this(capacity);
+		long[] t=new long[capacity+1];
+		long sum=0;
+		for(int i=0;i<capacity;++i){
+			long w=i<weights.length ? weights[i] : 0;
+			if(w<0) throw new IllegalArgumentException("Negative weight "+w+" at "+i);
+			this.weights.set(i,w);
+			sum+=w;
+			t[i+1]+=w;
+			int parent=i+1+(i+1&-(i+1));
+			if(parent<t.length) t[parent]+=t[i+1];
+		}
+		for(int i=1;i<t.length;++i) tree.set(i,t[i]);
+		total.set(sum);
+	}
+
+	public int capacity(){
+		return weights.length();
+	}
+
+	public long get(int i){
+		return weights.get(i);
+	}
+
+	public long total(){
+		return total.get();
+	}
+
+	/**
+	 * Not safe against other writers, the caller serializes them.
+	 */
+	public void set(int i,long weight){
+		if(weight<0) throw new IllegalArgumentException("Negative weight "+weight+" at "+i);
+		long delta=weight-weights.get(i);
+		if(delta==0) return;
+		weights.set(i,weight);
+		for(int j=i+1;j<tree.length();j+=j&-j) tree.getAndAdd(j,delta);
+		total.addAndGet(delta);
+	}
+
+	/**
+	 * @return a copy with room for capacity weights, keeping those below it
+	 */
+	public ConcurrentFenwickTree resized(int capacity){
+		long[] w=new long[Math.min(capacity,capacity())];
+		for(int i=0;i<w.length;++i) w[i]=weights.get(i);
+		return new ConcurrentFenwickTree(w,capacity);
+	}
+
+	/**
+	 * @return the index whose weight covers the point r, that is the first index whose prefix sum exceeds r
+	 */
+	public int find(long r){
+		int pos=0, n=tree.length();
+		for(int step=Integer.highestOneBit(capacity());step>0;step>>=1){
+			int next=pos+step;
+			if(next<n){
+				long t=tree.get(next);
+				if(t<=r){
+					pos=next;
+					r-=t;
+				}
+			}
+		}
+		return pos;
+	}
+
+	/**
+	 * @param uniform a uniform generator
+	 * @return an index drawn by weight, -1 if all weights are zero
+	 */
+	public int next(RandomGenerator uniform){
+		long sum=total.get();
+		if(sum<=0) return -1;
+		return find(Math.min(sum-1,(long)(uniform.nextDouble()*sum)));
+	}
+}
@@ -0,0 +1,61 @@
+package req.rand;
+
+import java.util.List;
+
+/**
+ * Draws one of a fixed set of values with probability proportional to its weight, in O(1) through an
+ * AliasTable, without allocating.
+ * <p>
+ * Weights can be changed while other threads draw: a change builds a new table and publishes it, so
+ * readers never lock and always see one consistent set of weights. Changes are O(n) and meant to be rare.
+ */
+public class DiscreteDistribution<T>{
+	private final Object[] values;
+	private volatile double[] weights;
+	private volatile AliasTable table;
+
+	/**
+	 * @param weights non negative weight of each value, in the same order
+	 */
+	public DiscreteDistribution(List<? extends T> values,double[] weights){
+		if(values.size()!=weights.length)
+			throw new IllegalArgumentException(values.size()+" values but "+weights.length+" weights");
+		this.values=values.toArray();
+		setWeights(weights);
+	}
+
+	public int size(){
+		return values.length;
+	}
+
+	@SuppressWarnings("unchecked")
+	public T get(int i){
+		return (T)values[i];
+	}
+
+	public double weight(int i){
+		return weights[i];
+	}
+
+	public synchronized void setWeights(double[] weights){
+		double[] w=weights.clone();
+		table=new AliasTable(w);
+		this.weights=w;
+	}
+
+	public synchronized void setWeight(int i,double weight){
+		double[] w=weights.clone();
+		w[i]=weight;
+		table=new AliasTable(w);
+		weights=w;
+	}
+
+	/**
+	 * @param uniform a uniform generator
+	 * @return a value drawn by weight, null if there are no values
+	 */
+	public T next(RandomGenerator uniform){
+		int i=table.next(uniform);
+		return i<0 ? null : get(i);
+	}
+}
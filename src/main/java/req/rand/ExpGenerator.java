@@ -26,6 +26,17 @@ public class ExpGenerator implements RandomGenerator{
 		return -Math.log(1.0-uniform.nextDouble())/lambda;
 	}
 
+	@Override
+	public void nextInts(int[] out,int upper){
+		for(int i=0;i<out.length;++i) out[i]=(int)(-Math.log(1.0-uniform.nextDouble())/lambda*upper);
+	}
+
+	@Override
+	public void nextDoubles(double[] out){
+		uniform.nextDoubles(out);
+		for(int i=0;i<out.length;++i) out[i]=-Math.log(1.0-out[i])/lambda;
+	}
+
 	@Override
 	public void setUpper(int upper) {
 		this.upper = upper;
@@ -0,0 +1,69 @@
+package req.rand;
+
+import java.util.function.Supplier;
+
+/**
+ * Gives every calling thread its own generator, made by a factory on the thread's first draw, so request
+ * threads share no sampler state at all. A setUpper() reaches each thread's generator before its next draw.
+ */
+public class PerThreadGenerator implements RandomGenerator{
+	private static final class Local{
+		final RandomGenerator gen;
+		int upper=-1;     //  last bound handed to gen.setUpper
+
+		Local(RandomGenerator gen){
+			this.gen=gen;
+		}
+	}
+
+	private final ThreadLocal<Local> locals;
+	private volatile int upper;
+
+	/**
+	 * @param factory makes one generator per thread, which need not be thread safe
+	 */
+	public PerThreadGenerator(int upper,Supplier<? extends RandomGenerator> factory){
+		this.upper=upper;
+		this.locals=ThreadLocal.withInitial(()->new Local(factory.get()));
+	}
+
+	private RandomGenerator local(){
+		Local l=locals.get();
+		int u=upper;
+		if(l.upper!=u){
+			l.gen.setUpper(u);
+			l.upper=u;
+		}
+		return l.gen;
+	}
+
+	@Override
+	public int nextInt(){
+		return local().nextInt();
+	}
+
+	@Override
+	public int nextInt(int upper){
+		return local().nextInt(upper);
+	}
+
+	@Override
+	public double nextDouble(){
+		return local().nextDouble();
+	}
+
+	@Override
+	public void nextInts(int[] out,int upper){
+		local().nextInts(out,upper);
+	}
+
+	@Override
+	public void nextDoubles(double[] out){
+		local().nextDoubles(out);
+	}
+
+	@Override
+	public void setUpper(int upper){
+		this.upper=upper;
+	}
+}
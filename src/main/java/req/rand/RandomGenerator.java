@@ -5,4 +5,18 @@ public interface RandomGenerator{
 	int nextInt(int upper);
 	double nextDouble();
 	void setUpper(int upper);
+
+	/**
+	 * Fills out with nextInt(upper) draws, implementations look up their per-call state once per batch.
+	 */
+	default void nextInts(int[] out,int upper){
+		for(int i=0;i<out.length;++i) out[i]=nextInt(upper);
+	}
+
+	/**
+	 * Fills out with nextDouble() draws.
+	 */
+	default void nextDoubles(double[] out){
+		for(int i=0;i<out.length;++i) out[i]=nextDouble();
+	}
 }
@@ -0,0 +1,61 @@
+package req.rand;
+
+import java.util.SplittableRandom;
+
+/**
+ * Per-thread random streams derived from one master seed.
+ * <p>
+ * Once seeded, a thread bound to a stream id draws the numbers of UniformGenerator from a SplittableRandom
+ * that depends on the master seed and that id only, so with the same seed the thread draws the same
+ * numbers on every run whatever the other threads do. Until seeded, and on threads never bound, numbers
+ * come from ThreadLocalRandom as before.
+ */
+public final class RandomStreams{
+	/**
+	 * Stream of the thread that seeds, which builds and shuffles the trees.
+	 */
+	public static final long SETUP=-1;
+	private static final long GOLDEN_GAMMA=0x9e3779b97f4a7c15L;
+
+	private static volatile boolean seeded=false;
+	private static volatile long master;
+	private static final ThreadLocal<SplittableRandom> stream=new ThreadLocal<>();
+
+	private RandomStreams(){
+	}
+
+	/**
+	 * Seeds all streams bound from now on and binds the calling thread to SETUP.
+	 */
+	public static synchronized void seed(long masterSeed){
+		master=masterSeed;
+		seeded=true;
+		bind(SETUP);
+	}
+
+	public static boolean isSeeded(){
+		return seeded;
+	}
+
+	/**
+	 * Binds the calling thread to stream id, restarting it; does nothing if not seeded.
+	 */
+	public static void bind(long id){
+		if(seeded) stream.set(new SplittableRandom(mix64(master+(id+2)*GOLDEN_GAMMA)));
+	}
+
+	/**
+	 * @return the stream of the calling thread, null if it has none
+	 */
+	static SplittableRandom current(){
+		return seeded ? stream.get() : null;
+	}
+
+	//  seeds of neighbouring ids are scrambled apart, plain seeds a multiple of the gamma apart would
+	//  give the same sequence shifted
+	private static long mix64(long z){
+		z=(z^(z>>>30))*0xbf58476d1ce4e5b9L;
+		z=(z^(z>>>27))*0x94d049bb133111ebL;
+		return z^(z>>>31);
+	}
+}
@@ -0,0 +1,62 @@
+package req.rand;
+
+/**
+ * Zipf ranks scattered over [0,upper) by a hash, as YCSB's scrambled zipfian does: item popularity
+ * follows the zipf law but the popular items are spread over the whole range instead of packed at its
+ * start. Ranks whose hashes collide share an item, so a few items get the weight of several ranks.
+ * Takes no memory per item.
+ */
+public class ScrambledZipfGenerator extends ZipfGenerator{
+	private static final long FNV_OFFSET=0xcbf29ce484222325L;
+	private static final long FNV_PRIME=0x100000001b3L;
+
+	public ScrambledZipfGenerator(double alpha,int upper,RandomGenerator uniformGenerator){
+		super(alpha,upper,uniformGenerator);
+	}
+
+	public ScrambledZipfGenerator(double alpha,int upper,RandomGenerator uniformGenerator,boolean shared){
+		super(alpha,upper,uniformGenerator,shared);
+	}
+
+	//  FNV-1a over the 8 bytes of the rank, low byte first
+	static long fnv64(long rank){
+		long h=FNV_OFFSET;
+		for(int i=0;i<8;++i){
+			h=(h^(rank&0xff))*FNV_PRIME;
+			rank>>>=8;
+		}
+		return h;
+	}
+
+	private static int scramble(int rank,int upper){
+		return (int)Long.remainderUnsigned(fnv64(rank),upper);
+	}
+
+	@Override
+	public int nextInt(int upper){
+		return upper<1 ? 0 : scramble(super.nextInt(upper),upper);
+	}
+
+	@Override
+	public int nextInt(){
+		return nextInt(upper);
+	}
+
+	@Override
+	public double nextDouble(){
+		int n=upper;
+		return (double)nextInt(n)/n;
+	}
+
+	@Override
+	public void nextInts(int[] out,int upper){
+		super.nextInts(out,upper);
+		for(int i=0;i<out.length;++i) out[i]=upper<1 ? 0 : scramble(out[i],upper);
+	}
+
+	@Override
+	public void nextDoubles(double[] out){
+		int n=upper;
+		for(int i=0;i<out.length;++i) out[i]=(double)nextInt(n)/n;
+	}
+}
@@ -1,7 +1,12 @@
 package req.rand;
 
+import java.util.Arrays;
+import java.util.SplittableRandom;
 import java.util.concurrent.ThreadLocalRandom;
 
+/**
+ * Uniform numbers from the calling thread's RandomStreams stream, or ThreadLocalRandom when it has none.
+ */
 public class UniformGenerator implements RandomGenerator{
 	protected int upper;
 
@@ -20,20 +25,48 @@ public class UniformGenerator implements RandomGenerator{
 
 	@Override
 	public int nextInt(int upper){
-		return upper < 1 ? 0 : ThreadLocalRandom.current().nextInt(upper);
+		if(upper<1) return 0;
+		SplittableRandom r=RandomStreams.current();
+		return r==null ? ThreadLocalRandom.current().nextInt(upper) : r.nextInt(upper);
 	}
 
 	@Override
 	public double nextDouble(){
-		return ThreadLocalRandom.current().nextDouble();
+		SplittableRandom r=RandomStreams.current();
+		return r==null ? ThreadLocalRandom.current().nextDouble() : r.nextDouble();
+	}
+
+	@Override
+	public void nextInts(int[] out,int upper){
+		SplittableRandom r=RandomStreams.current();
+		if(upper<1){
+			Arrays.fill(out,0);
+		}else if(r!=null){
+			for(int i=0;i<out.length;++i) out[i]=r.nextInt(upper);
+		}else{
+			ThreadLocalRandom t=ThreadLocalRandom.current();
+			for(int i=0;i<out.length;++i) out[i]=t.nextInt(upper);
+		}
+	}
+
+	@Override
+	public void nextDoubles(double[] out){
+		SplittableRandom r=RandomStreams.current();
+		if(r!=null){
+			for(int i=0;i<out.length;++i) out[i]=r.nextDouble();
+		}else{
+			ThreadLocalRandom t=ThreadLocalRandom.current();
+			for(int i=0;i<out.length;++i) out[i]=t.nextDouble();
+		}
 	}
 
 	//  http://stackoverflow.com/a/2546186/5573989
 	public long nextLong(long upper){
 		// error checking and 2^x checking removed for simplicity.
+		SplittableRandom r=RandomStreams.current();
 		long bits, val;
 		do{
-			bits=(ThreadLocalRandom.current().nextLong()<<1)>>>1;
+			bits=((r==null ? ThreadLocalRandom.current().nextLong() : r.nextLong())<<1)>>>1;
 			val=bits%upper;
 		}while(bits-val+(upper-1)<0L);
 		return val;
@@ -0,0 +1,86 @@
+package req.rand;
+
+/**
+ * Exponential numbers by the ziggurat method, a drop in for ExpGenerator that skips the logarithm on all
+ * but about 1.2% of the draws.
+ * <p>
+ * George Marsaglia and Wai Wan Tsang
+ * "The Ziggurat Method for Generating Random Variables."
+ * Journal of Statistical Software 5.8 (2000): 1-7.
+ * <p>
+ * Each draw takes one double of the uniform source: its low 8 bits pick one of the 256 layers and the
+ * 45 bits above them the point within the layer, so the two never share bits.
+ */
+public class ZigguratExpGenerator implements RandomGenerator{
+	private static final int LAYERS=256;
+	private static final double SCALE=0x1p45;
+	private static final double R=7.697117470131487;     //  start of the tail
+	private static final double V=3.949659822581572e-3;  //  area of each layer
+
+	private static final long[] k=new long[LAYERS];      //  points below k[i] are inside the density
+	private static final double[] w=new double[LAYERS];  //  point to x
+	private static final double[] f=new double[LAYERS];  //  density at the layer's edge
+
+	static{
+		double de=R, te=R;
+		double q=V/Math.exp(-de);
+		k[0]=(long)((de/q)*SCALE);
+		k[1]=0;
+		w[0]=q/SCALE;
+		w[LAYERS-1]=de/SCALE;
+		f[0]=1;
+		f[LAYERS-1]=Math.exp(-de);
+		for(int i=LAYERS-2;i>=1;--i){
+			de=-Math.log(V/de+Math.exp(-de));
+			k[i+1]=(long)((de/te)*SCALE);
+			te=de;
+			f[i]=Math.exp(-de);
+			w[i]=de/SCALE;
+		}
+	}
+
+	final RandomGenerator uniform;
+	final double lambda;
+	int upper;
+
+	public ZigguratExpGenerator(double lambda,int upper,RandomGenerator uniform){
+		this.lambda=lambda;
+		this.uniform=uniform;
+		this.upper=upper;
+	}
+
+	/**
+	 * @return an exponential number of mean 1
+	 */
+	double standard(){
+		while(true){
+			long bits=(long)(uniform.nextDouble()*0x1p53);
+			int i=(int)bits&(LAYERS-1);
+			long j=bits>>>8;
+			double x=j*w[i];
+			if(j<k[i]) return x;
+			if(i==0) return R-Math.log(1.0-uniform.nextDouble());
+			if(f[i]+uniform.nextDouble()*(f[i-1]-f[i])<Math.exp(-x)) return x;
+		}
+	}
+
+	@Override
+	public int nextInt(){
+		return (int)(nextDouble()*upper);
+	}
+
+	@Override
+	public int nextInt(int upper){
+		return (int)(nextDouble()*upper);
+	}
+
+	@Override
+	public double nextDouble(){
+		return standard()/lambda;
+	}
+
+	@Override
+	public void setUpper(int upper){
+		this.upper=upper;
+	}
+}
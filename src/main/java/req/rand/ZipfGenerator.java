@@ -8,53 +8,108 @@ package req.rand;
  * ACM Transactions on Modeling and Computer Simulation (TOMACS) 6.3 (1996): 169-184.
  */
 public class ZipfGenerator implements RandomGenerator{
-	protected RandomGenerator gen;
+	protected final RandomGenerator gen;
 	/**
 	 * Exponent parameter of the distribution.
 	 */
-	double exponent;
+	final double exponent;
 	/**
-	 * Number of elements.
+	 * Number of elements used by {@link #nextInt()}.
 	 */
-	int upper;
+	volatile int upper;
 	/**
 	 * Constant equal to {@code hIntegral(1.5) - 1}.
 	 */
-	double hIntegralX1;
+	final double hIntegralX1;
 	/**
-	 * Constant equal to {@code hIntegral(upper + 0.5)}.
+	 * Constant equal to {@code 2 - hIntegralInverse(hIntegral(2.5) - h(2)}.
 	 */
-	double hIntegralNumberOfElements;
+	final double s;
 	/**
-	 * Constant equal to {@code 2 - hIntegralInverse(hIntegral(2.5) - h(2)}.
+	 * {@code hIntegral(n + 0.5)} of the last few numbers of elements each thread asked for. A shared
+	 * instance is used by all request threads and callers pass a different bound nearly every time, so the
+	 * constant is looked up instead of stored in a field.
+	 */
+	private final ThreadLocal<Bounds> bounds;
+	/**
+	 * The same for an unshared instance, which skips the thread local.
 	 */
-	double s;
+	private final Bounds ownBounds;
 
 	public ZipfGenerator(double alpha,int upper,RandomGenerator uniformGenerator){
+		this(alpha,upper,uniformGenerator,true);
+	}
+
+	/**
+	 * @param shared false for an instance only one thread ever draws from, see {@link PerThreadGenerator}
+	 */
+	public ZipfGenerator(double alpha,int upper,RandomGenerator uniformGenerator,boolean shared){
 		this.gen=uniformGenerator;
 		this.upper=upper;
 		this.exponent=alpha;
 		this.hIntegralX1=hIntegral(1.5)-1d;
-		this.hIntegralNumberOfElements=hIntegral(upper+0.5);
 		this.s=2d-hIntegralInverse(hIntegral(2.5)-h(2));
+		this.bounds=shared ? ThreadLocal.withInitial(Bounds::new) : null;
+		this.ownBounds=shared ? null : new Bounds();
+	}
+
+	private Bounds bounds(){
+		return ownBounds!=null ? ownBounds : bounds.get();
+	}
+
+	private final class Bounds{
+		static final int SIZE=16;     //  power of two
+		final int[] upper=new int[SIZE];
+		final double[] hIntegral=new double[SIZE];
+
+		Bounds(){
+			java.util.Arrays.fill(upper,-1);
+		}
+
+		double hIntegralNumberOfElements(int n){
+			int i=n&(SIZE-1);
+			if(upper[i]!=n){
+				hIntegral[i]=hIntegral(n+0.5);
+				upper[i]=n;
+			}
+			return hIntegral[i];
+		}
 	}
 
 	@Override
 	public double nextDouble(){
-		return (double)nextInt()/upper;
+		int n=upper;
+		return (double)nextInt(n)/n;
 	}
 
+	/**
+	 * Draws from [1, upper] without touching any state shared between threads, safe to call with a
+	 * different bound every time. The constant of each bound is computed once and cached.
+	 */
 	@Override
 	public int nextInt(int upper){
-		if(upper!=this.upper){
-			this.upper=upper;
-			this.hIntegralNumberOfElements=hIntegral(upper+0.5);
-		}
-		return nextInt();
+		return sample(upper,bounds().hIntegralNumberOfElements(upper));
 	}
 
 	@Override
 	public int nextInt(){
+		return nextInt(upper);
+	}
+
+	@Override
+	public void nextInts(int[] out,int upper){
+		double hIntegralNumberOfElements=bounds().hIntegralNumberOfElements(upper);
+		for(int i=0;i<out.length;++i) out[i]=sample(upper,hIntegralNumberOfElements);
+	}
+
+	@Override
+	public void nextDoubles(double[] out){
+		int n=upper;
+		double hIntegralNumberOfElements=bounds().hIntegralNumberOfElements(n);
+		for(int i=0;i<out.length;++i) out[i]=(double)sample(n,hIntegralNumberOfElements)/n;
+	}
+
+	private int sample(int upper,double hIntegralNumberOfElements){
 		while(true){
 			final double u=hIntegralNumberOfElements+gen.nextDouble()*(hIntegralX1-hIntegralNumberOfElements);
 			// u is uniformly distributed in (hIntegralX1, hIntegralNumberOfElements]
@@ -14,6 +14,24 @@ public class Config {
     private final static String PROPERTY_REQUEST_ZIPF_ALPHA = "alpha";
     private final static String PROPERTY_REQUEST_NUMBER_OF_THREADS = "number_threads";
     public static final String PROPERTY_NUMBER_OF_REQUESTS = "num_of_requests";
+    private final static String PROPERTY_TREE_LAYOUT = "tree_layout";
+    private final static String PROPERTY_PATH_CACHE_SIZE = "path_cache_size";
+    private final static String PROPERTY_PARSE_THREADS = "parse_threads";
+    private final static String PROPERTY_JOURNAL_FILE = "journal_file";
+    private final static String PROPERTY_JOURNAL_SYNC_INTERVAL = "journal_sync_interval";
+    private final static String PROPERTY_JOURNAL_CHECKPOINT_OPS = "journal_checkpoint_ops";
+    private final static String PROPERTY_SEED = "seed";
+    private final static String PROPERTY_LOAD_PROFILE = "load_profile";
+    private final static String PROPERTY_THREAD_MODE = "thread_mode";
+    private final static String PROPERTY_CALLBACK_BATCH_SIZE = "callback_batch_size";
+    private final static String PROPERTY_CALLBACK_LINGER = "callback_linger";
+    private final static String PROPERTY_PIPELINE_RING_SIZE = "pipeline_ring_size";
+    private final static String PROPERTY_PIPELINE_CONSUMERS = "pipeline_consumers";
+    private final static String PROPERTY_PIPELINE_WAIT = "pipeline_wait";
+    private final static String PROPERTY_MAX_IN_FLIGHT = "max_in_flight";
+    private final static String PROPERTY_MAX_IN_FLIGHT_PER_CLIENT = "max_in_flight_per_client";
+    private final static String PROPERTY_IN_FLIGHT_OVERFLOW = "in_flight_overflow";
+    private final static String PROPERTY_IN_FLIGHT_DRAIN_TIMEOUT = "in_flight_drain_timeout";
 
     public final static int RATIO_KEY_READ = 0;
     public final static int RATIO_KEY_WRITE = 1;
@@ -24,6 +42,15 @@ public class Config {
     public final static int RATIO_KEY_CREATE_DIR = 6;
     public final static String REQUEST_DISTRIBUTION_ZIPF = "zipf";
     public final static String REQUEST_DISTRIBUTION_EXP = "exp";
+    public final static String REQUEST_DISTRIBUTION_SIZE = "size";
+    public final static String REQUEST_DISTRIBUTION_SCRAMBLED_ZIPF = "scrambled_zipf";
+    public final static String REQUEST_DISTRIBUTION_LATEST = "latest";
+    public final static String TREE_LAYOUT_OBJECT = "object";
+    public final static String TREE_LAYOUT_COMPACT = "compact";
+    public final static String THREAD_MODE_PLATFORM = "platform";
+    public final static String THREAD_MODE_VIRTUAL = "virtual";
+    public final static String IN_FLIGHT_OVERFLOW_BLOCK = "block";
+    public final static String IN_FLIGHT_OVERFLOW_DROP = "drop";
 
     private static volatile Config instance = null;
 
@@ -78,4 +105,106 @@ public class Config {
     public int getNumberOfRequests() {
         return Integer.valueOf(rb.getString(PROPERTY_NUMBER_OF_REQUESTS));
     }
+
+    public String getTreeLayout() {
+        return getString(PROPERTY_TREE_LAYOUT, TREE_LAYOUT_OBJECT);
+    }
+
+    public long getPathCacheSize() {
+        return Utils.parseLong(getString(PROPERTY_PATH_CACHE_SIZE, "16m"));
+    }
+
+    public int getParseThreads() {
+        int threads = Integer.parseInt(getString(PROPERTY_PARSE_THREADS, "1"));
+        return threads == 0 ? Runtime.getRuntime().availableProcessors() : threads;
+    }
+
+    /**
+     * @return journal of the dynamic tree, empty if mutations aren't journaled
+     */
+    public String getJournalFile() {
+        return getString(PROPERTY_JOURNAL_FILE, "");
+    }
+
+    public long getJournalSyncInterval() {
+        return Long.parseLong(getString(PROPERTY_JOURNAL_SYNC_INTERVAL, "100"));
+    }
+
+    public long getJournalCheckpointOps() {
+        return Long.parseLong(getString(PROPERTY_JOURNAL_CHECKPOINT_OPS, "1000000"));
+    }
+
+    /**
+     * @return master seed of the per-thread random streams, null if numbers aren't seeded
+     */
+    public Long getSeed() {
+        String seed = getString(PROPERTY_SEED, "");
+        return seed.isEmpty() ? null : Long.parseLong(seed);
+    }
+
+    /**
+     * @return phases of the request rate over time, empty to keep read_write_inter_arrival_rate throughout
+     */
+    public String getLoadProfile() {
+        return getString(PROPERTY_LOAD_PROFILE, "");
+    }
+
+    public String getThreadMode() {
+        return getString(PROPERTY_THREAD_MODE, THREAD_MODE_PLATFORM);
+    }
+
+    public int getCallbackBatchSize() {
+        return Integer.parseInt(getString(PROPERTY_CALLBACK_BATCH_SIZE, "1"));
+    }
+
+    /**
+     * @return milliseconds a request may wait for its batch to fill, 0 waits until it is full
+     */
+    public long getCallbackLinger() {
+        return Long.parseLong(getString(PROPERTY_CALLBACK_LINGER, "10"));
+    }
+
+    /**
+     * @return slots of the ring between request threads and the callback, 0 calls the callback on the request threads
+     */
+    public int getPipelineRingSize() {
+        return Integer.parseInt(getString(PROPERTY_PIPELINE_RING_SIZE, "0"));
+    }
+
+    public int getPipelineConsumers() {
+        return Integer.parseInt(getString(PROPERTY_PIPELINE_CONSUMERS, "1"));
+    }
+
+    public String getPipelineWait() {
+        return getString(PROPERTY_PIPELINE_WAIT, "park");
+    }
+
+    /**
+     * @return most requests of an async callback in flight over all threads, 0 for no limit
+     */
+    public int getMaxInFlight() {
+        return Integer.parseInt(getString(PROPERTY_MAX_IN_FLIGHT, "0"));
+    }
+
+    /**
+     * @return most requests of an async callback in flight per thread, 0 for no limit
+     */
+    public int getMaxInFlightPerClient() {
+        return Integer.parseInt(getString(PROPERTY_MAX_IN_FLIGHT_PER_CLIENT, "0"));
+    }
+
+    public String getInFlightOverflow() {
+        return getString(PROPERTY_IN_FLIGHT_OVERFLOW, IN_FLIGHT_OVERFLOW_BLOCK);
+    }
+
+    /**
+     * @return ms to wait at the end of a run for async requests in flight, 0 to wait until all complete
+     */
+    public long getInFlightDrainTimeout() {
+        return Long.parseLong(getString(PROPERTY_IN_FLIGHT_DRAIN_TIMEOUT, "60000"));
+    }
+
+    private String getString(String key, String defaultValue) {
+        return rb.containsKey(key) ? rb.getString(key).trim() : defaultValue;
+    }
 }
@@ -1,28 +1,108 @@
 package util;
 
+import req.rand.RandomGenerator;
+import req.rand.UniformGenerator;
+
 import java.util.*;
 
 public class MathX {
     private static final long MAX_VALUE = 0xFFFFFFFFL;
     private static final double MAX_NODE = 15359.0;
 
-    private static Random random = new Random(100);
+    //  draws from the calling thread's seeded stream, see req.rand.RandomStreams
+    private static final RandomGenerator random = new UniformGenerator();
 
-    public static Queue<Integer> nonrepeatRandom(int bound, int size, List<Integer> exclude) {
-        Set<Integer> s = new HashSet<>(exclude);
-        Queue<Integer> result = new LinkedList<>();
+    //  samples up to this size check for repeats by scanning, larger ones through a per-thread table
+    private static final int SCAN_LIMIT = 64;
+
+    private static final ThreadLocal<int[]> table = ThreadLocal.withInitial(() -> new int[0]);
+
+    /**
+     * Draws k distinct ints of [0, bound) into out[0..k), in random order, by Floyd's algorithm.
+     * Allocates nothing once the calling thread has sampled this many before.
+     */
+    public static void sample(int bound, int k, int[] out) {
+        sample(bound, k, out, null, 0);
+    }
 
-        for(int i = 0; i < size; i++){
-            while(true) {
-                int num = random.nextInt(bound);
-                if (!s.contains(num)) {
-                    s.add(num);
-                    result.add(num);
-                    break;
-                }
+    /**
+     * Draws k distinct ints of [0, bound) other than exclude[0..excludeCount) into out[0..k), in random order.
+     * exclude is sorted in place, its values must be distinct and within [0, bound).
+     */
+    public static void sample(int bound, int k, int[] out, int[] exclude, int excludeCount) {
+        int n = bound - excludeCount;
+        if (k < 0 || k > n)
+            throw new IllegalArgumentException("Cannot draw " + k + " of " + n + " values");
+        int[] seen = k > SCAN_LIMIT ? clearTable(k) : null;
+        for (int i = 0, j = n - k; i < k; ++i, ++j) {
+            int t = random.nextInt(j + 1);
+            //  t taken already means j is next, which no earlier draw could reach
+            if (seen == null ? contains(out, i, t) : !add(seen, t)) {
+                t = j;
+                if (seen != null)
+                    add(seen, t);
+            }
+            out[i] = t;
+        }
+        shuffle(out, k);
+        if (excludeCount > 0) {
+            //  map [0, n) onto [0, bound) around the excluded values
+            Arrays.sort(exclude, 0, excludeCount);
+            for (int i = 0; i < k; ++i) {
+                int v = out[i];
+                for (int e = 0; e < excludeCount && exclude[e] <= v; ++e)
+                    ++v;
+                out[i] = v;
             }
         }
+    }
+
+    private static boolean contains(int[] a, int n, int value) {
+        for (int i = 0; i < n; ++i) {
+            if (a[i] == value)
+                return true;
+        }
+        return false;
+    }
 
+    //  open addressing over values + 1, 0 is free
+    private static int[] clearTable(int k) {
+        int size = Integer.highestOneBit(k * 2 - 1) << 1;
+        int[] t = table.get();
+        if (t.length < size) {
+            t = new int[size];
+            table.set(t);
+        } else {
+            Arrays.fill(t, 0);
+        }
+        return t;
+    }
+
+    //  false if value was there already, the table length is a power of two
+    private static boolean add(int[] t, int value) {
+        int mask = t.length - 1;
+        for (int i = (value * 0x9E3779B9) >>> Integer.numberOfLeadingZeros(mask); ; i = (i + 1) & mask) {
+            if (t[i] == value + 1)
+                return false;
+            if (t[i] == 0) {
+                t[i] = value + 1;
+                return true;
+            }
+        }
+    }
+
+    public static Queue<Integer> nonrepeatRandom(int bound, int size, List<Integer> exclude) {
+        int[] excluded = new int[exclude.size()];
+        int n = 0;
+        for (int e : new TreeSet<>(exclude)) {
+            if (e >= 0 && e < bound)
+                excluded[n++] = e;
+        }
+        int[] out = new int[size];
+        sample(bound, size, out, excluded, n);
+        Queue<Integer> result = new LinkedList<>();
+        for (int v : out)
+            result.add(v);
         return result;
     }
 
@@ -31,11 +111,11 @@ public class MathX {
     }
 
     public static int nextInt(int bound) {
-        return (int)(random.nextDouble() * (bound));
+        return random.nextInt(bound);
     }
 
     public static int nextInt(int min, int max) {
-        return min + (int)(random.nextDouble() * ((max - min) + 1));
+        return min + random.nextInt((max - min) + 1);
     }
 
     public static <T> void shuffle(T[] array) {
@@ -45,6 +125,18 @@ public class MathX {
         }
     }
 
+    /**
+     * Shuffles a[0..n).
+     */
+    public static void shuffle(int[] a, int n) {
+        for (int i = n; i > 1; i--) {
+            int j = random.nextInt(i);
+            int t = a[i - 1];
+            a[i - 1] = a[j];
+            a[j] = t;
+        }
+    }
+
     private static <T> void swap(T[] array, int i, int j) {
         T temp = array[i];
         array[i] = array[j];